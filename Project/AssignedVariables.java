@@ -0,0 +1,25 @@
+import syntaxtree.*;
+import visitor.DepthFirstVisitor;
+import java.util.HashSet;
+
+/*
+ * Names of the variables that are assigned somewhere in a statement, used to decide
+ * which locals need a phi at the header of a loop.
+ */
+class AssignedVariables extends DepthFirstVisitor {
+    HashSet<String> names;
+
+    AssignedVariables() {
+        names = new HashSet<String>();
+    }
+
+    static HashSet<String> of(Node statement) throws Exception {
+        AssignedVariables visitor = new AssignedVariables();
+        statement.accept(visitor);
+        return visitor.names;
+    }
+
+    public void visit(AssignmentStatement n) throws Exception {
+        names.add(n.f0.f0.toString());
+    }
+}
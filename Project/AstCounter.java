@@ -0,0 +1,54 @@
+import syntaxtree.*;
+import visitor.DepthFirstVisitor;
+
+/*
+ * Counts the nodes of a syntax tree for the compiler statistics.
+ */
+class AstCounter extends DepthFirstVisitor {
+    long tokens;
+    long classes;
+    long methods;
+    long statements;
+    long expressions;
+    long identifiers;
+
+    public void visit(NodeToken n) throws Exception {
+        tokens++;
+    }
+
+    public void visit(MainClass n) throws Exception {
+        classes++;
+        methods++;
+        super.visit(n);
+    }
+
+    public void visit(ClassDeclaration n) throws Exception {
+        classes++;
+        super.visit(n);
+    }
+
+    public void visit(ClassExtendsDeclaration n) throws Exception {
+        classes++;
+        super.visit(n);
+    }
+
+    public void visit(MethodDeclaration n) throws Exception {
+        methods++;
+        super.visit(n);
+    }
+
+    public void visit(Statement n) throws Exception {
+        statements++;
+        super.visit(n);
+    }
+
+    public void visit(Expression n) throws Exception {
+        expressions++;
+        super.visit(n);
+    }
+
+    public void visit(Identifier n) throws Exception {
+        identifiers++;
+        super.visit(n);
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * What an identifier inside a method body refers to: a local variable, a formal
+ * parameter or a field of the object, together with everything the code generator
+ * needs to address it.
+ */
+public class Binding {
+    static final int LOCAL = 0;
+    static final int PARAMETER = 1;
+    static final int FIELD = 2;
+
+    int kind;
+    Variable var;
+    // IR type of the value
+    String irType;
+    // stack slot of a local or parameter, e.g. %x
+    String address;
+    // byte offset of a field from the start of the object (after the vtable pointer)
+    int fieldOffset;
+    // index of the current SSA value of a local or parameter kept in registers, or -1
+    int slot;
+
+    Binding(int kind, Variable var, String irType) {
+        this.kind = kind;
+        this.var = var;
+        this.irType = irType;
+        this.address = "%" + var.name;
+        this.fieldOffset = var.offset + 8;
+        this.slot = -1;
+    }
+
+    boolean isField() {
+        return kind == FIELD;
+    }
+
+    boolean isPromoted() {
+        return slot >= 0;
+    }
+}
@@ -0,0 +1,105 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/*
+ * Flattened view of the class hierarchy, built once after the symbol table is complete.
+ * Every class gets a table of all its fields and methods, inherited ones included (a
+ * field or method of the class hides the inherited one with the same name), so
+ * resolving a member is a single hash probe however deep the hierarchy is. The chain
+ * of ancestors of every class is stored too, which makes subclass tests O(1), and so
+ * are the names of the methods overridden below every class, which tells whether a call
+ * has a single target.
+ */
+public class ClassHierarchy {
+
+    static class Node {
+        ClassType classType;
+        Node parent;
+        int depth;
+        // ids of the ancestors from the root class down to the class itself
+        int[] ancestors;
+        HashMap<String, Variable> fields;
+        HashMap<String, MethodType> methods;
+        // methods declared by some subclass, directly or further down
+        HashSet<String> overridden;
+    }
+
+    private final Node[] nodes;
+
+    ClassHierarchy(SymbolTable symbolTable) {
+        nodes = new Node[symbolTable.types.size()];
+
+        // a super class is always declared before its subclasses
+        for (ClassType classType : symbolTable.table.values()) {
+            Node node = new Node();
+            node.classType = classType;
+            node.parent = classType.hasSuperClass() ? nodes[classType.superClass] : null;
+            node.overridden = new HashSet<String>();
+
+            if (node.parent == null) {
+                node.depth = 0;
+                node.ancestors = new int[] { classType.id };
+                node.fields = new HashMap<String, Variable>(classType.variables);
+                node.methods = new HashMap<String, MethodType>(classType.methods);
+            }
+            else {
+                node.depth = node.parent.depth + 1;
+                node.ancestors = Arrays.copyOf(node.parent.ancestors, node.depth + 1);
+                node.ancestors[node.depth] = classType.id;
+                node.fields = new HashMap<String, Variable>(node.parent.fields);
+                node.fields.putAll(classType.variables);
+                node.methods = new HashMap<String, MethodType>(node.parent.methods);
+                node.methods.putAll(classType.methods);
+            }
+            nodes[classType.id] = node;
+
+            for (Node ancestor = node.parent; ancestor != null; ancestor = ancestor.parent)
+                ancestor.overridden.addAll(classType.methods.keySet());
+        }
+    }
+
+    private Node node(int classId) {
+        return classId < 0 || classId >= nodes.length ? null : nodes[classId];
+    }
+
+    // field of the class or of one of its ancestors
+    Variable getField(int classId, String name) {
+        return nodes[classId].fields.get(name);
+    }
+
+    // method of the class or of one of its ancestors
+    MethodType getMethod(int classId, String name) {
+        return nodes[classId].methods.get(name);
+    }
+
+    // method with the given name in the nearest ancestor, ignoring the class itself
+    MethodType getInheritedMethod(int classId, String name) {
+        Node parent = nodes[classId].parent;
+        return parent == null ? null : parent.methods.get(name);
+    }
+
+    /*
+     * Class hierarchy analysis: the class of the only method a call of name on a receiver
+     * of static type classId can run, or null if a subclass overrides it.
+     */
+    ClassType getSingleTarget(int classId, String name) {
+        Node node = node(classId);
+        if (node == null || node.overridden.contains(name))
+            return null;
+        for (; node != null; node = node.parent) {
+            if (node.classType.methods.containsKey(name))
+                return node.classType;
+        }
+        return null;
+    }
+
+    // true if derived is the class base or one of its subclasses
+    boolean isSubclass(int derived, int base) {
+        Node derivedNode = node(derived);
+        Node baseNode = node(base);
+        if (derivedNode == null || baseNode == null || baseNode.depth > derivedNode.depth)
+            return false;
+        return derivedNode.ancestors[baseNode.depth] == base;
+    }
+}
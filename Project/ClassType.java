@@ -1,15 +1,29 @@
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class ClassType extends SymbolType {
-    String superClass;
-    LinkedHashMap<String, Variable> variables;
+    int id;
+    int superClass;
+    Map<String, Variable> variables;
     LinkedHashMap<String, MethodType> methods;
 
-    ClassType(String name, String superClass) {
+    ClassType(String name, int id, int superClass) {
         super(name);
+        this.id = id;
         this.superClass = superClass;
-        variables = new LinkedHashMap<String, Variable>();
+        // allocated on the first field
+        variables = Collections.emptyMap();
         methods = new LinkedHashMap<String, MethodType>();
     }
 
+    boolean hasSuperClass() {
+        return superClass != TypeUniverse.NONE;
+    }
+
+    void addVariable(Variable var) {
+        if (variables.isEmpty())
+            variables = new LinkedHashMap<String, Variable>();
+        variables.put(var.name, var);
+    }
 }
@@ -2,665 +2,1539 @@ import visitor.GJDepthFirst;
 import syntaxtree.*;
 import static utilities.Constants.*;
 
-import java.io.File;
-import java.io.FileWriter;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public class CodeGeneratorVisitor extends GJDepthFirst<String, Scope> {
+    // a buffer that grew past this is not kept for the next visitor
+    static final int MAX_FREE_BUFFER = 1 << 20;
+    // the buffer of the last visitor released on each thread
+    private static final ThreadLocal<StringBuilder> FREE_BUFFER = new ThreadLocal<StringBuilder>();
+    static final NameTable REGISTERS = new NameTable("%_");
+    static final NameTable ARRAY_ASSIGN_LABELS = new NameTable("array_assign");
+    static final NameTable ARRAY_LOOKUP_LABELS = new NameTable("array_lookup");
+    static final NameTable BOOLEAN_ALLOC_LABELS = new NameTable(BOOLEAN + "_arr_alloc");
+    static final NameTable INT_ALLOC_LABELS = new NameTable(INT + "_arr_alloc");
+    static final NameTable IF_LABELS = new NameTable("if");
+    static final NameTable LOOP_LABELS = new NameTable("loop");
+    static final NameTable AND_LABELS = new NameTable("andClause");
+    static final NameTable BCE_LABELS = new NameTable("bce");
 
-public class CodeGeneratorVisitor extends GJDepthFirst<String, String> {
     SymbolTable symbolTable;
-    LinkedHashMap<String, HashMap<String, MethodType>> vtables;
+    CompilerOptions options;
+    TypeUniverse types;
+    // field offsets, object sizes and vtables, see ObjectLayout
+    ObjectLayout layout;
+    IRSink sink;
+    // IR of the method being generated, handed to the sink once the method is complete
     StringBuilder buffer;
+    // what the IR is emitted through: straight into the buffer, or with passes into an IRModule
+    IREmitter emit;
     int register;
     int arrayLabelCounter;
     int andClauseCounter;
     int loopCounter;
     int ifCounter;
-    String currentType;
-    String currentCallClassName;
+    int currentType;
+    ClassType currentClass;
+    MethodType currentMethod;
+    // identifiers of the current method resolved so far
+    HashMap<String, Binding> bindings;
+    // receivers and arguments of the calls being generated, those of a nested call
+    // stacked on the ones of the call it is an argument of
     ArrayList<String> currentCallArgs;
     Boolean load;
+    // label of the basic block being emitted
+    String currentBlock;
+    // with -fmem2reg, the promoted locals and parameters and their current values by slot
+    Binding[] promoted;
+    String[] values;
+    // with -fbce, accesses a[i] known to be in bounds, keyed by array name and index value
+    HashSet<String> inBounds;
+    int bceCounter;
+    // with -finline, the object the current (possibly inlined) method runs on
+    String self;
+    Inliner inliner;
+    ArrayList<Inliner.Decision> inlineDecisions;
+    // optimizations run on the IR of every method before it is written
+    PassManager passManager;
+    // with --cache, the IR of methods generated before
+    FragmentCache fragments;
+    // with a checker, every method is type checked in the same traversal that generates
+    // it, and checkedType is the type of the expression generated last
+    TypeCheckingVisitor checker;
+    String checkedType;
+    // with -j, the type error of the method generated in this context
+    MyException error;
+    // emitted so far, for the compiler statistics
+    long instructionCount;
+    long registerCount;
+    long boundsChecksEliminated;
+    long callsDevirtualized;
+    // with -j, bytes allocated generating methods on threads other than the one that
+    // generates this file (which its phase already counts)
+    long workerAllocatedBytes;
+
+    public CodeGeneratorVisitor(SymbolTable symbolTable, IRSink sink) {
+        this(symbolTable, sink, new CompilerOptions());
+    }
+
+    public CodeGeneratorVisitor(SymbolTable symbolTable, IRSink sink, CompilerOptions options) {
+        this(symbolTable, sink, options, symbolTable.layout);
+        createVtables();
+        addHelperMethods();
+      
+        // printVtables();
+    }
 
-    public CodeGeneratorVisitor(SymbolTable symbolTable) {
+    // state of its own for generating single methods, the layout of the file is shared
+    private CodeGeneratorVisitor(SymbolTable symbolTable, IRSink sink, CompilerOptions options, ObjectLayout layout) {
         this.symbolTable = symbolTable;
-        this.vtables = new LinkedHashMap<>();
-        this.buffer = new StringBuilder();
+        this.options = options;
+        this.sink = sink;
+        this.types = symbolTable.types;
+        this.layout = layout;
+        this.buffer = takeBuffer();
         this.register = 0;
         this.arrayLabelCounter = 0;
         this.andClauseCounter = 0;
         this.loopCounter = 0;
         this.ifCounter = 0;
-        this.currentType = "";
-        this.currentCallClassName = "";
+        this.currentType = TypeUniverse.NONE;
+        this.currentClass = null;
+        this.currentMethod = null;
+        this.bindings = new HashMap<String, Binding>();
         this.load = false;
+        this.currentBlock = null;
+        this.promoted = null;
+        this.values = null;
+        this.inBounds = new HashSet<String>();
+        this.bceCounter = 0;
+        this.self = "%" + THIS;
+        this.inliner = null;
+        this.inlineDecisions = new ArrayList<Inliner.Decision>();
+        this.passManager = PassManager.forLevel(options.optLevel);
+        this.emit = passManager.isEmpty() ? new IREmitter(buffer) : new IREmitter();
+        this.fragments = null;
+        this.checker = null;
+        this.checkedType = null;
+        this.error = null;
+        this.instructionCount = 0;
+        this.registerCount = 0;
+        this.boundsChecksEliminated = 0;
+        this.callsDevirtualized = 0;
+        this.workerAllocatedBytes = 0;
         this.currentCallArgs = new ArrayList<>();
-        createVtables();
-        addHelperMethods();
-      
-        // printVtables();
+    }
+
+    // IR of a method generated in parallel, until it is written in source order
+    private static class MethodSink implements IRSink {
+        final StringBuilder text = new StringBuilder();
+
+        public void write(CharSequence text) {
+            this.text.append(text);
+        }
+
+        public long size() {
+            return text.length();
+        }
+
+        public void close() {
+        }
     }
 
     private void addHelperMethods() {
-        buffer.append("declare i8* @calloc(i32, i32)\n");
-        buffer.append("declare i32 @printf(i8*, ...)\n");
-        buffer.append("declare void @exit(i32)\n\n");
-        buffer.append("@_cint = constant [4 x i8] c\"%d\\0a\\00\"\n");
-        buffer.append("@_cOOB = constant [15 x i8] c\"Out of bounds\\0a\\00\"\n");
-        buffer.append("define void @print_int(i32 %i) {\n\t");
-        buffer.append("%_str = bitcast [4 x i8]* @_cint to i8*\n\t");
-        buffer.append("call i32 (i8*, ...) @printf(i8* %_str, i32 %i)\n\t");
-        buffer.append("ret void\n}\n\n");
-        buffer.append("define void @throw_oob() {\n\t");
-        buffer.append("%_str = bitcast [15 x i8]* @_cOOB to i8*\n\t");
-        buffer.append("call i32 (i8*, ...) @printf(i8* %_str)\n\t");
-        buffer.append("call void @exit(i32 1)\n\t");
-        buffer.append("ret void\n}\n\n");
+        emit.text("declare i8* @calloc(i32, i32)\n");
+        emit.text("declare i32 @printf(i8*, ...)\n");
+        emit.text("declare void @exit(i32)\n\n");
+        emit.text("@_cint = constant [4 x i8] c\"%d\\0a\\00\"\n");
+        emit.text("@_cOOB = constant [15 x i8] c\"Out of bounds\\0a\\00\"\n");
+        emit.beginFunction("void", "print_int").argument("i32", "%", "i").beginBody();
+        emit.define("%", "_str", "i8*", "bitcast").text("[4 x i8]* @_cint to i8*").end();
+        emit.instruction("call").text("i32 (i8*, ...) @printf(i8* ").value("%_str").text(", i32 ").value("%i").text(')').end();
+        emit.instruction("ret").text("void").end();
+        emit.endFunction();
+        emit.blankLine();
+        emit.beginFunction("void", "throw_oob").beginBody();
+        emit.define("%", "_str", "i8*", "bitcast").text("[15 x i8]* @_cOOB to i8*").end();
+        emit.instruction("call").text("i32 (i8*, ...) @printf(i8* ").value("%_str").text(')').end();
+        emit.instruction("call").text("void @exit(i32 1)").end();
+        emit.instruction("ret").text("void").end();
+        emit.endFunction();
+        emit.blankLine();
     }
 
     // DEBUG ONLY
     public void printVtables() {
-        for(String classKey : vtables.keySet()) {
-            System.out.println("class: " + classKey);
-            for(String method : vtables.get(classKey).keySet()) {
-                System.out.println("method: " + method);
-                System.out.println("offset: " + vtables.get(classKey).get(method).offset);
+        for (ClassType classType : symbolTable.table.values()) {
+            System.out.println("class: " + classType.name);
+            for (int slot = 0; slot < layout.slots(classType.id); slot++) {
+                MethodType method = layout.method(classType.id, slot);
+                System.out.println("method: " + layout.definer(classType.id, slot).name + "." + method.name);
+                System.out.println("offset: " + method.offset);
                 System.out.print("parameters: ");
-                for(String param : vtables.get(classKey).get(method).parameters.keySet()) {
-                    Variable variable = vtables.get(classKey).get(method).parameters.get(param);
-                    System.out.print(variable.type + ", ");
+                for (int param : method.parameterTypes) {
+                    System.out.print(types.name(param) + ", ");
                 }
-                System.out.println("\nreturn type: " + vtables.get(classKey).get(method).returnType + "\n");
+                System.out.println("\nreturn type: " + types.name(method.returnType) + "\n");
             }
         }
     }
 
     private void createVtables() {
-        for(String className : symbolTable.table.keySet()) {
-            ClassType classType = symbolTable.table.get(className);
-            vtables.put(className, new HashMap<String, MethodType>());
-            buffer.append("@." + className + "_vtable = global [");
-            // main class
-            if (classType.methods.size() == 1 && ((MethodType)classType.methods.values().toArray()[0]).returnType.equals(VOID)) {
-                buffer.append("0 x i8*] []\n");
-                continue;
+        for (ClassType classType : symbolTable.table.values()) {
+            int slots = layout.slots(classType.id);
+            emit.text("@.").text(classType.name).text("_vtable = global [").text(slots).text(" x i8*] [");
+            for (int slot = 0; slot < slots; slot++) {
+                if (slot > 0)
+                    emit.text(", ");
+                emitMethodPointer(layout.definer(classType.id, slot).name, layout.method(classType.id, slot));
             }
-            ArrayList<String> methodSignaturesIR = getMethodsSignatures(className);
-            buffer.append(methodSignaturesIR.size());
-            buffer.append(" x i8*] [");
-            methodSignaturesIR.forEach(s -> buffer.append(s));
-            buffer.append("]\n");
+            emit.text("]\n");
+        }
+        emit.text("\n\n");
+    }
+
+    private String getType(int type) {
+        return types.irType(type);
+    }
+
+    /*
+     * The IR is emitted through emit, see IREmitter: without passes it is written
+     * straight into the buffer, registers as %_ and their number, types as the cached
+     * strings of the TypeUniverse, so no String is built for an instruction. The
+     * registers that are returned as values and the labels come from tables of their
+     * names.
+     */
+
+    static String registerName(int register) {
+        return REGISTERS.name(register);
+    }
+
+    // a buffer left by a visitor released on this thread, or a new one
+    private static StringBuilder takeBuffer() {
+        StringBuilder buffer = FREE_BUFFER.get();
+        if (buffer == null)
+            return new StringBuilder();
+        FREE_BUFFER.set(null);
+        return buffer;
+    }
+
+    // hands the buffer over to the next visitor created on this thread, once done with this one
+    void release() {
+        if (buffer != null && buffer.capacity() <= MAX_FREE_BUFFER) {
+            buffer.setLength(0);
+            FREE_BUFFER.set(buffer);
         }
-        buffer.append("\n\n");
+        buffer = null;
     }
 
-    private String getType(String type) {
-        switch (type) {
-            case INT:
-                return "i32";
-            case INT_ARRAY:
-                return "i32*";
-            case BOOLEAN:
-                return "i1";
-            default:
-                return "i8*";
+    // the type of a pointer to the method, this first: i32 (i8*,i32)*, built once per method
+    private String methodPointerType(MethodType method) {
+        String pointerType = method.irPointerType;
+        if (pointerType == null) {
+            StringBuilder type = new StringBuilder(getType(method.returnType)).append(" (i8*");
+            for (int parameterType : method.parameterTypes)
+                type.append(',').append(getType(parameterType));
+            method.irPointerType = pointerType = type.append(")*").toString();
         }
+        return pointerType;
+    }
+
+    // a vtable entry, i8* bitcast (i32 (i8*,i32)* @Class.method to i8*)
+    private void emitMethodPointer(String className, MethodType method) {
+        emit.text("i8* bitcast (").text(methodPointerType(method)).text(" @").text(className).text('.').text(method.name).text(" to i8*)");
     }
 
-    private String getMethodParametersTypes(MethodType method) {
-        ArrayList<Variable> params = new ArrayList<Variable>(method.parameters.values());
-        String resultStr = params.size() > 0 ? "i8*," : "i8*";
-        for (Variable parameter : params) {
-            resultStr += getType(parameter.type);
-            if (parameter != params.get(params.size() - 1))
-                resultStr += ',';
+    private void allocateFormalParams(MethodType method) {
+        for(Variable param : method.parameters.values()) {
+            String type = getType(param.type);
+            emit.define("%", param.name, types.irPointerType(param.type), "alloca").text(type).end();
+            emit.instruction("store").text(type).text(' ').value("%.", param.name).text(", ").text(type).text("* ").value("%", param.name).end();
         }
-        return resultStr;
     }
 
-    private String getMethodSignature(String className, MethodType method) {
-        String parametersTypes = getMethodParametersTypes(method);
-        String signature = String.format("i8* bitcast (%1$s (%2$s)* @%3$s.%4$s to i8*)", getType(method.returnType), parametersTypes, className, method.name);
+    private void enterMethod(MethodType method) {
+        currentMethod = method;
+        bindings.clear();
+    }
 
-        return signature;
+    /*
+     * With -fmem2reg every local and parameter lives in registers instead of an alloca:
+     * values holds the register (or constant) with its current value, assignments just
+     * replace it, and phis merge the values where if and while control flow joins.
+     * Locals start as zero, parameters as the incoming argument.
+     */
+    private void promoteLocals(MethodType method, boolean withParameters) {
+        ArrayList<String> arguments = null;
+        if (withParameters) {
+            arguments = new ArrayList<String>();
+            for (Variable var : method.parameters.values())
+                arguments.add("%." + var.name);
+        }
+        bindLocals(method, arguments);
+        startBlock("entry");
     }
 
-    private ArrayList<String> getMethodsSignatures(String className) {
-        ClassType derivedClass = symbolTable.table.get(className);
-        String derivedClassName = derivedClass.name;
-        // get derived class methods
-        ArrayList<MethodType> methodTypes = new ArrayList<MethodType>(derivedClass.methods.values());
-        ArrayList<String> methodNames = new ArrayList<String>();
-        ArrayList<String> methodSignaturesIR = new ArrayList<String>();
+    // slots for the locals and, if arguments is not null, the parameters bound to them
+    private void bindLocals(MethodType method, List<String> arguments) {
+        int slot = 0;
+        int count = method.locals.size() + (arguments != null ? method.parameters.size() : 0);
+        promoted = new Binding[count];
+        values = new String[count];
+        if (arguments != null) {
+            for (Variable var : method.parameters.values()) {
+                Binding binding = promoted[slot] = getBinding(var.name);
+                binding.slot = slot;
+                values[slot] = arguments.get(slot);
+                slot++;
+            }
+        }
+        for (Variable var : method.locals.values()) {
+            Binding binding = promoted[slot] = getBinding(var.name);
+            binding.slot = slot;
+            values[slot++] = binding.irType.endsWith("*") ? "null" : "0";
+        }
+    }
 
-        // get the names of each method of derived class and get its signature
-        methodTypes.forEach((m) -> {    methodNames.add(m.name); 
-                                        methodSignaturesIR.add(getMethodSignature(derivedClassName, m)); 
-                                        vtables.get(derivedClassName).put(m.name, m);
-                                    });        
-        
-        while (symbolTable.classInheritsClass(derivedClass.name)) {
-            ClassType baseClass = symbolTable.table.get(derivedClass.superClass);
+    /*
+     * With -finline, the body of the method generated in place of the call, with the
+     * parameters bound to the arguments and this to the receiver. The method runs in
+     * its own state, locals and parameters in new slots and fields addressed from the
+     * receiver, while registers and labels keep being numbered from the caller's
+     * counters, so they do not clash with the caller's. Returns the return value.
+     */
+    private String inline(ClassType target, MethodType method, MethodDeclaration declaration, List<String> callArgs) throws Exception {
+        ArrayList<String> arguments = new ArrayList<String>(callArgs);
+        callArgs.clear();
+
+        ClassType callerClass = currentClass;
+        MethodType callerMethod = currentMethod;
+        HashMap<String, Binding> callerBindings = bindings;
+        Binding[] callerPromoted = promoted;
+        String[] callerValues = values;
+        HashSet<String> callerInBounds = inBounds;
+        String callerSelf = self;
+        Boolean callerLoad = load;
+        // the method is checked where it is declared
+        TypeCheckingVisitor callerChecker = checker;
+
+        currentClass = target;
+        currentMethod = method;
+        bindings = new HashMap<String, Binding>();
+        inBounds = new HashSet<String>();
+        self = arguments.get(0);
+        load = true;
+        checker = null;
+        bindLocals(method, arguments.subList(1, arguments.size()));
+
+        Scope scope = Scope.ofMethod(target, method);
+        declaration.f8.accept(this, scope);
+        String result = declaration.f10.accept(this, scope);
+
+        currentClass = callerClass;
+        currentMethod = callerMethod;
+        bindings = callerBindings;
+        promoted = callerPromoted;
+        values = callerValues;
+        inBounds = callerInBounds;
+        self = callerSelf;
+        load = callerLoad;
+        checker = callerChecker;
+        currentType = method.returnType;
+        return result;
+    }
+
+    /*
+     * With -ffold, value of an operand that is an integer or boolean constant (a literal,
+     * a folded expression, or with -fmem2reg a local holding one), or null if it is only
+     * known at run time. Integer arithmetic wraps around like the i32 instructions.
+     */
+    private Integer constantValue(String operand) {
+        return options.foldConstants ? parseConstant(operand) : null;
+    }
+
+    private static Integer parseConstant(String operand) {
+        if (operand.isEmpty())
+            return null;
+        char first = operand.charAt(0);
+        if (first != '-' && !Character.isDigit(first))
+            return null;
+        try {
+            return Integer.valueOf(operand);
+        }
+        catch (NumberFormatException ex) {
+            return null;
+        }
+    }
 
-            // get base class methods
-            ArrayList<MethodType> baseClassmethodTypes = new ArrayList<MethodType>(baseClass.methods.values());
-            String baseClassName = baseClass.name;
+    private void throwOutOfBounds() {
+        emit.instruction("call").text("void @throw_oob()").end();
+        emit.instruction("unreachable").end();
+        emit.blankLine();
+    }
+
+    private void startBlock(String label) {
+        emit.label(label);
+        currentBlock = label;
+    }
 
-            // check if derived class inherits method from parent
-            baseClassmethodTypes.forEach((m) -> { if (!methodNames.contains(m.name)) {
-                                                    methodNames.add(m.name); 
-                                                    methodSignaturesIR.add(getMethodSignature(baseClassName, m));
-                                                    vtables.get(derivedClassName).put(m.name, m);
-                                                } });           
-            derivedClass = baseClass;                                  
+    private void jump(String label) {
+        emit.instruction("br").text("label %").text(label).end();
+        emit.blankLine();
+    }
+
+    private void branch(String condition, String ifTrue, String ifFalse) {
+        emit.instruction("br").text("i1 ").value(condition).text(", label %").text(ifTrue).text(", label %").text(ifFalse).end();
+        emit.blankLine();
+    }
+
+    // an instruction on two operands, e.g. icmp with "slt i32 ", returns its result
+    private String binary(String opcode, String prefix, String type, String left, String right) {
+        emit.define(register, type, opcode).text(prefix).value(left).text(", ").value(right).end();
+        return registerName(register++);
+    }
+
+    private void phi(String result, Binding binding, String value1, String block1, String value2, String block2) {
+        emit.define("", result, binding.irType, "phi").text(binding.irType).text(" [").value(value1).text(", %").text(block1)
+            .text("], [").value(value2).text(", %").text(block2).text(']').end();
+    }
+
+    // phis at the join of two branches for every promoted variable with different values
+    private void mergeValues(String[] values1, String block1, String[] values2, String block2) {
+        for (int slot = 0; slot < promoted.length; slot++) {
+            if (values1[slot].equals(values2[slot]))
+                continue;
+            String result = registerName(register++);
+            values[slot] = result;
+            phi(result, promoted[slot], values1[slot], block1, values2[slot], block2);
         }
+    }
 
-        for (int i = 0; i < methodSignaturesIR.size(); i++) {
-            // not the last element
-            if (methodSignaturesIR.get(i) != methodSignaturesIR.get(methodSignaturesIR.size() - 1))
-                methodSignaturesIR.set(i, methodSignaturesIR.get(i) + ", ") ;
-        }        
-        return methodSignaturesIR;
+    // binding of a name used in the current method, resolved on its first use
+    private Binding getBinding(String name) {
+        Binding binding = bindings.get(name);
+        if (binding != null)
+            return binding;
+
+        Variable var;
+        if ((var = currentMethod.locals.get(name)) != null)
+            binding = new Binding(Binding.LOCAL, var, getType(var.type));
+        else if ((var = currentMethod.parameters.get(name)) != null)
+            binding = new Binding(Binding.PARAMETER, var, getType(var.type));
+        else
+            binding = new Binding(Binding.FIELD, var = symbolTable.hierarchy.getField(currentClass.id, name), getType(var.type));
+
+        bindings.put(name, binding);
+        return binding;
     }
 
-    private void allocateFormalParams(MethodType method) {
-        for(Variable param : method.parameters.values()) {
-            String type = getType(param.type);
-            buffer.append("\t%" + param.name + " = alloca " + type + "\n");
-            buffer.append("\tstore " + type + " %." + param.name + ", " + type + "* %" + param.name + "\n");
+    // type checks a part that is not generated, or is generated more than once, on its own
+    private String check(Node node, Scope scope) throws Exception {
+        return node.accept(checker, scope);
+    }
+
+    private void flushBuffer() throws IOException {
+        write(optimize());
+        buffer.setLength(0);
+    }
+
+    // the IR emitted since the last flush, after the passes of the pass manager
+    private StringBuilder optimize() {
+        if (!emit.buildsIR())
+            return buffer;
+        IRModule module = emit.take();
+        passManager.run(module);
+        module.print(buffer);
+        return buffer;
+    }
+
+    private void write(CharSequence text) throws IOException {
+        // every instruction is on its own line, indented by a tab
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\t' && (i == 0 || text.charAt(i - 1) == '\n'))
+                instructionCount++;
         }
+        registerCount += register;
+        sink.write(text);
+    }
+
+    private int[] labelCounters() {
+        return new int[] { andClauseCounter, arrayLabelCounter, loopCounter, ifCounter, bceCounter };
+    }
+
+    // writes a method generated before, as if it was generated again
+    private void reuse(FragmentCache.Fragment fragment) throws IOException {
+        andClauseCounter += fragment.labels[0];
+        arrayLabelCounter += fragment.labels[1];
+        loopCounter += fragment.labels[2];
+        ifCounter += fragment.labels[3];
+        bceCounter += fragment.labels[4];
+        register = fragment.registers;
+        boundsChecksEliminated += fragment.boundsChecksEliminated;
+        callsDevirtualized += fragment.callsDevirtualized;
+        load = fragment.load;
+        write(fragment.text);
     }
 
-    public void writeBufferToFile(String fileName) {
+    private void storeFragment(String key, int[] counters, long eliminated, long devirtualized) throws IOException {
+        String text = optimize().toString();
+        write(text);
+        buffer.setLength(0);
+
+        FragmentCache.Fragment facts = new FragmentCache.Fragment();
+        int[] after = labelCounters();
+        facts.labels = new int[after.length];
+        for (int i = 0; i < after.length; i++)
+            facts.labels[i] = after[i] - counters[i];
+        facts.registers = register;
+        facts.boundsChecksEliminated = boundsChecksEliminated - eliminated;
+        facts.callsDevirtualized = callsDevirtualized - devirtualized;
+        facts.load = load;
+        fragments.store(key, text, counters, facts);
+    }
+
+    public String visit(Goal n, Scope argu) throws Exception {
+        if (options.inline)
+            inliner = Inliner.of(n);
+        if (options.jobs == 1)
+            return super.visit(n, argu);
+        n.f0.accept(this, argu);
+        generateParallel(n);
+        return null;
+    }
+
+    /*
+     * With -j N the methods are generated on a fork-join pool, each in a context of its
+     * own (registers, labels, bindings, buffer and statistics), with labels numbered from
+     * zero. They are written in source order, renumbering the labels from the counters
+     * of the methods before, so the output is the same as generating them one by one.
+     * Within a file a generated method depends on the ones before only through load,
+     * which is false until the first assignment: it is predicted from the assignments
+     * in the methods before, and a method generated with the wrong value is generated
+     * again. Inside the pool of -j with many files, the methods go to that pool. With a
+     * checker, the fields of the classes are checked here, and of the errors found the
+     * one that comes first in the source is thrown.
+     */
+    private void generateParallel(Goal n) throws Exception {
+        ArrayList<ClassType> classes = new ArrayList<ClassType>();
+        ArrayList<MethodDeclaration> methods = new ArrayList<MethodDeclaration>();
+        // an error in the fields of a class, after the methods of the classes before it
+        MyException fieldError = null;
+        for (Node node : n.f1.nodes) {
+            Node declaration = ((TypeDeclaration)node).f0.choice;
+            String className;
+            NodeListOptional classFields;
+            NodeListOptional classMethods;
+            if (declaration instanceof ClassDeclaration) {
+                className = ((ClassDeclaration)declaration).f1.f0.toString();
+                classFields = ((ClassDeclaration)declaration).f3;
+                classMethods = ((ClassDeclaration)declaration).f4;
+            }
+            else {
+                className = ((ClassExtendsDeclaration)declaration).f1.f0.toString();
+                classFields = ((ClassExtendsDeclaration)declaration).f5;
+                classMethods = ((ClassExtendsDeclaration)declaration).f6;
+            }
+            if (checker != null) {
+                try {
+                    classFields.accept(checker, null);
+                }
+                catch (MyException ex) {
+                    fieldError = ex;
+                    break;
+                }
+            }
+            for (Node method : classMethods.nodes) {
+                classes.add(symbolTable.table.get(className));
+                methods.add((MethodDeclaration)method);
+            }
+        }
+
+        boolean[] predictedLoad = new boolean[methods.size()];
+        ArrayList<ForkJoinTask<CodeGeneratorVisitor>> tasks = new ArrayList<ForkJoinTask<CodeGeneratorVisitor>>();
+        ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ? null : new ForkJoinPool(options.jobs);
+        Thread thread = Thread.currentThread();
         try {
-            // create file and write buffer
-            File file = new File(fileName);
-            String llfileName = file.getName().substring(0, file.getName().lastIndexOf('.')) + ".ll";
-            // FileWriter fw = new FileWriter(new File("ll_files", llfileName));
-            FileWriter fw = new FileWriter(new File(llfileName));
+            boolean assigned = load;
+            for (int i = 0; i < methods.size(); i++) {
+                ClassType classType = classes.get(i);
+                MethodDeclaration method = methods.get(i);
+                boolean methodLoad = predictedLoad[i] = assigned;
+                ForkJoinTask<CodeGeneratorVisitor> task = ForkJoinTask.adapt(() -> generateMethod(classType, method, methodLoad, thread));
+                if (pool == null)
+                    task.fork();
+                else
+                    pool.execute(task);
+                tasks.add(task);
+                assigned = assigned || !AssignedVariables.of(method.f8).isEmpty();
+            }
 
-            fw.write(buffer.toString());
-            fw.close();
+            for (int i = 0; i < methods.size(); i++) {
+                CodeGeneratorVisitor context = tasks.get(i).get();
+                workerAllocatedBytes += context.workerAllocatedBytes;
+                if (context.error == null && predictedLoad[i] != load)
+                    context = generateMethod(classes.get(i), methods.get(i), load, thread);
+                if (context.error != null)
+                    throw context.error;
+                append(context);
+            }
+            if (fieldError != null)
+                throw fieldError;
         }
-        catch (Exception ex) {
-            System.err.println(ex.getMessage());
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception)
+                throw (Exception)ex.getCause();
+            throw ex;
+        }
+        finally {
+            for (ForkJoinTask<CodeGeneratorVisitor> task : tasks)
+                task.cancel(false);
+            if (pool != null)
+                pool.shutdownNow();
         }
     }
-    
-    public String visit(MainClass n, String argu) throws Exception { 
-        String id = n.f1.accept(this, null);
-        currentCallClassName = id;
 
-        buffer.append("define i32 @main() {\n");       
+    // the bytes allocated are kept in the context if it runs on another thread than thread
+    private CodeGeneratorVisitor generateMethod(ClassType classType, MethodDeclaration method, boolean load, Thread thread) throws Exception {
+        long startBytes = CompilerStats.allocatedBytes();
+        CodeGeneratorVisitor context = new CodeGeneratorVisitor(symbolTable, new MethodSink(), options, layout);
+        context.inliner = inliner;
+        context.fragments = fragments;
+        context.checker = checker != null ? new TypeCheckingVisitor(symbolTable) : null;
+        context.currentClass = classType;
+        context.load = load;
+        try {
+            method.accept(context, Scope.ofClass(classType));
+        }
+        catch (MyException ex) {
+            context.error = ex;
+        }
+        finally {
+            // its IR is in its sink by now
+            context.release();
+            if (Thread.currentThread() != thread)
+                context.workerAllocatedBytes = CompilerStats.allocatedBytes() - startBytes;
+        }
+        return context;
+    }
 
-        n.f14.accept(this, METHOD_BODY + " " + id + ",main");
-        n.f15.accept(this, id + ",main");
+    // writes a method generated in its own context as if it was generated by this one
+    private void append(CodeGeneratorVisitor context) throws IOException {
+        String text = FragmentCache.renumber(((MethodSink)context.sink).text.toString(), labelCounters(), 1);
+        andClauseCounter += context.andClauseCounter;
+        arrayLabelCounter += context.arrayLabelCounter;
+        loopCounter += context.loopCounter;
+        ifCounter += context.ifCounter;
+        bceCounter += context.bceCounter;
+        register = context.register;
+        load = context.load;
+        instructionCount += context.instructionCount;
+        registerCount += context.registerCount;
+        boundsChecksEliminated += context.boundsChecksEliminated;
+        callsDevirtualized += context.callsDevirtualized;
+        inlineDecisions.addAll(context.inlineDecisions);
+        passManager.merge(context.passManager);
+        sink.write(text);
+    }
 
-        buffer.append("\n\tret i32 0\n}\n\n");
+    public String visit(MainClass n, Scope argu) throws Exception { 
+        String id = n.f1.accept(this, null);
+        currentClass = symbolTable.table.get(id);
+        enterMethod(currentClass.methods.get("main"));
+        if (checker != null)
+            n.f14.accept(checker, null);
+
+        emit.beginFunction("i32", "main").beginBody();
+        if (options.promoteLocals)
+            promoteLocals(currentMethod, false);
+
+        Scope scope = Scope.ofMethod(currentClass, currentMethod);
+        n.f14.accept(this, scope.withKind(METHOD_BODY));
+        n.f15.accept(this, scope);
+
+        emit.blankLine();
+        emit.instruction("ret").text("i32 0").end();
+        emit.endFunction();
+        emit.blankLine();
+        flushBuffer();
         return null; 
     }
 
-    public String visit(ClassDeclaration n, String argu) throws Exception { 
+    public String visit(ClassDeclaration n, Scope argu) throws Exception { 
         String identifier = n.f1.accept(this, null);
-        currentCallClassName = identifier;
+        currentClass = symbolTable.table.get(identifier);
+        if (checker != null)
+            n.f3.accept(checker, null);
 
         if (n.f4.present())
-            n.f4.accept(this, identifier);       
+            n.f4.accept(this, Scope.ofClass(currentClass));       
 
         return null; 
     }
 
-	public String visit(ClassExtendsDeclaration n, String argu) throws Exception { 
+	public String visit(ClassExtendsDeclaration n, Scope argu) throws Exception { 
         String identifier = n.f1.accept(this, null);
-        currentCallClassName = identifier;
+        currentClass = symbolTable.table.get(identifier);
+        if (checker != null)
+            n.f5.accept(checker, null);
 
         if (n.f6.present())
-            n.f6.accept(this, identifier);
+            n.f6.accept(this, Scope.ofClass(currentClass));
 
 		return null;
     }
 
-    public String visit(MethodDeclaration n, String className) throws Exception { 
+    public String visit(MethodDeclaration n, Scope classScope) throws Exception { 
         String methodName = n.f2.accept(this, null);
-        MethodType method = symbolTable.table.get(className).methods.get(methodName);
+        String key = null;
+        int[] counters = null;
+        if (fragments != null) {
+            counters = labelCounters();
+            key = fragments.key(currentClass.name, methodName, load);
+            FragmentCache.Fragment fragment = fragments.lookup(key, counters);
+            if (fragment != null) {
+                if (checker != null)
+                    check(n, classScope);
+                reuse(fragment);
+                return null;
+            }
+        }
+        long eliminated = boundsChecksEliminated;
+        long devirtualized = callsDevirtualized;
+        if (checker != null)
+            checker.checkDeclarations(n, classScope);
+        MethodType method = currentClass.methods.get(methodName);
+        enterMethod(method);
         String returnType = getType(method.returnType);
-        String scope = className + "," + methodName;
+        Scope scope = Scope.ofMethod(currentClass, method);
 
-        buffer.append("define " + returnType + " @" + className + "." + methodName + "(i8* %this");
+        emit.beginFunction(returnType, classScope.className(), methodName).argument("i8*", "%", THIS);
         // formal parameters list
         for(Variable var : method.parameters.values()) {
-            buffer.append(", " + getType(var.type) + " %." + var.name);
+            emit.argument(getType(var.type), "%.", var.name);
         }
-        buffer.append(") {\n");
-        allocateFormalParams(method);
+        emit.beginBody();
+        if (options.promoteLocals)
+            promoteLocals(method, true);
+        else
+            allocateFormalParams(method);
         
         register = 0;
         // ( VarDeclaration() )*
-        n.f7.accept(this, METHOD_BODY);
+        n.f7.accept(this, scope.withKind(METHOD_BODY));
 
         // ( Statement() )*
         n.f8.accept(this,  scope);
 
         // return expression
         String retValue = n.f10.accept(this, scope);
-        buffer.append("\tret " + returnType + " " + retValue);
-
-        buffer.append("\n}\n\n");
+        if (checker != null)
+            checker.checkReturn(checkedType, method);
+        emit.instruction("ret").text(returnType).text(' ').value(retValue).end();
+        emit.endFunction();
+        emit.blankLine();
+        if (key != null)
+            storeFragment(key, counters, eliminated, devirtualized);
+        else
+            flushBuffer();
         return null; 
     }
 
-    public String visit(VarDeclaration n, String scope) throws Exception { 
-        if (!scope.equals(CLASS)) {
-            String type = getType(n.f0.accept(this, null));
+    public String visit(VarDeclaration n, Scope scope) throws Exception { 
+        if (!scope.kind.equals(CLASS) && !options.promoteLocals) {
+            int typeId = types.id(n.f0.accept(this, null));
+            String type = getType(typeId);
             String identifier = n.f1.accept(this, null);
-            buffer.append("\t%" + identifier + " = alloca " + type + "\n");
+            emit.define("%", identifier, types.irPointerType(typeId), "alloca").text(type).end();
         }
         return null; 
     }
 
-    public String visit(AssignmentStatement n, String scope) throws Exception { 
+    public String visit(AssignmentStatement n, Scope scope) throws Exception { 
    
         load = true;
         String rValue = n.f2.accept(this, scope);
+        if (checker != null)
+            checker.checkAssignment(checker.variableType(n.f0.f0.toString(), scope), checkedType, scope);
+        if (values != null) {
+            Binding binding = getBinding(n.f0.f0.toString());
+            if (binding.isPromoted()) {
+                values[binding.slot] = rValue;
+                currentType = binding.var.type;
+                return null;
+            }
+        }
         load = false;
         String lValue = n.f0.accept(this, scope);
         load = true;
-        buffer.append("\tstore " + getType(currentType) + " " + rValue + ", " + getType(currentType) + "* " + lValue + "\n");
+        String type = getType(currentType);
+        emit.instruction("store").text(type).text(' ').value(rValue).text(", ").text(type).text("* ").value(lValue).end();
 
         return null; 
     }
 
-    public String visit(ArrayAssignmentStatement n, String scope) throws Exception { 
-        String label1 = "array_assign" + arrayLabelCounter++;
-        String label2 = "array_assign" + arrayLabelCounter++;
-        String label3 = "array_assign" + arrayLabelCounter++;
+    public String visit(ArrayAssignmentStatement n, Scope scope) throws Exception { 
+        String label1 = ARRAY_ASSIGN_LABELS.name(arrayLabelCounter++);
+        String label2 = ARRAY_ASSIGN_LABELS.name(arrayLabelCounter++);
+        String label3 = ARRAY_ASSIGN_LABELS.name(arrayLabelCounter++);
+
+        if (isInBounds(n.f0.f0.toString(), n.f2)) {
+            String array = n.f0.accept(this, scope);
+            String arrayType = checkedType;
+            String index = n.f2.accept(this, scope);
+            String indexType = checkedType;
+            String value = n.f5.accept(this, scope);
+            if (checker != null)
+                checker.checkArrayAssignment(arrayType, indexType, checkedType, scope);
+            emit.define(register, "i32", "add").text("i32 ").value(index).text(", 1").end();
+            emit.define(register + 1, "i32*", "getelementptr").text("i32, i32* ").value(array).text(", i32 ").value(register).end();
+            register++;
+            emit.instruction("store").text("i32 ").value(value).text(", i32* ").value(register++).end();
+            return null;
+        }
         
         String _register = n.f0.accept(this, scope);
+        String arrayType = checkedType;
         
-        buffer.append("\t%_" + register + " = load i32, i32* " + _register + "\n");
+        emit.define(register, "i32", "load").text("i32, i32* ").value(_register).end();
         int _reg = register;
         register++;
 
         String expr1 = n.f2.accept(this, scope);
+        String indexType = checkedType;
 
-        buffer.append("\t%_" + register + " = icmp ult i32 " + expr1 + ", %_" + _reg + "\n");
-        buffer.append("\tbr i1 %_" + register++ + ", label %" + label1 + ", label %" + label2 + "\n\n");
-        buffer.append(label1 + ":\n");
+        emit.define(register, "i1", "icmp").text("ult i32 ").value(expr1).text(", ").value(_reg).end();
+        branch(registerName(register++), label1, label2);
+        startBlock(label1);
 
         String expr2 = n.f5.accept(this, scope);
+        if (checker != null)
+            checker.checkArrayAssignment(arrayType, indexType, checkedType, scope);
 
-        buffer.append("\t%_" + register + " = add i32 " + expr1 + ", 1\n");
+        emit.define(register, "i32", "add").text("i32 ").value(expr1).text(", 1").end();
         _reg = register;
         register++;
    
-        buffer.append("\t%_" + register + " = getelementptr i32, i32* " + _register + ", i32 %_" + _reg + "\n");
-        buffer.append("\tstore i32 " + expr2 + ", i32* %_" + register++ + "\n");
-        buffer.append("\tbr label %" + label3 + "\n\n");
-        buffer.append(label2 + ":\n");
-        buffer.append("\tcall void @throw_oob()\n");
-        buffer.append("\tbr label %" + label3 + "\n\n");
-        buffer.append(label3 + ":\n");
+        emit.define(register, "i32*", "getelementptr").text("i32, i32* ").value(_register).text(", i32 ").value(_reg).end();
+        emit.instruction("store").text("i32 ").value(expr2).text(", i32* ").value(register++).end();
+        jump(label3);
+        startBlock(label2);
+        throwOutOfBounds();
+        startBlock(label3);
         
         return null; 
     }
 
-    public String visit(IfStatement n, String scope) throws Exception { 
-        String label1 = "if" + ifCounter++;
-        String label2 = "if" + ifCounter++;
-        String label3 = "if" + ifCounter++;
-        
+    public String visit(IfStatement n, Scope scope) throws Exception { 
         String expr = n.f2.accept(this, scope);
+        if (checker != null)
+            checker.checkCondition(checkedType, "if");
+
+        // only the arm that is taken is emitted, without any branch
+        Integer condition = constantValue(expr);
+        if (condition != null) {
+            if (condition != 0) {
+                n.f4.accept(this, scope);
+                if (checker != null)
+                    check(n.f6, scope);
+            }
+            else {
+                if (checker != null)
+                    check(n.f4, scope);
+                n.f6.accept(this, scope);
+            }
+            return null;
+        }
 
-        buffer.append("\tbr i1 " + expr + ", label %" + label1 + ", label %" + label2 + "\n\n");
-        buffer.append(label1 + ":\n");
+        String label1 = IF_LABELS.name(ifCounter++);
+        String label2 = IF_LABELS.name(ifCounter++);
+        String label3 = IF_LABELS.name(ifCounter++);
+
+        branch(expr, label1, label2);
+        startBlock(label1);
+        String[] entryValues = values == null ? null : values.clone();
 
         n.f4.accept(this, scope);
 
-        buffer.append("\tbr label %" + label3 + "\n\n");
-        buffer.append(label2 + ":\n");
+        jump(label3);
+        String[] thenValues = values;
+        String thenBlock = currentBlock;
+        if (values != null)
+            values = entryValues;
+        startBlock(label2);
 
         n.f6.accept(this, scope);
 
-        buffer.append("\tbr label %" + label3 + "\n\n");
-        buffer.append(label3 + ":\n");
+        jump(label3);
+        String elseBlock = currentBlock;
+        startBlock(label3);
+        if (values != null)
+            mergeValues(thenValues, thenBlock, values.clone(), elseBlock);
         
         return null; 
     }
 
-    public String visit(WhileStatement n, String scope) throws Exception { 
-        String label1 = "loop" + loopCounter++;
-        String label2 = "loop" + loopCounter++;
-        String label3 = "loop" + loopCounter++;
+    public String visit(WhileStatement n, Scope scope) throws Exception { 
+        if (!options.eliminateBoundsChecks || values == null) {
+            loop(n, scope, null, null);
+            return null;
+        }
+
+        // the loop may be generated twice, so it is checked on its own first
+        TypeCheckingVisitor savedChecker = checker;
+        if (checker != null)
+            check(n, scope);
+        checker = null;
+        if (!boundsCheckedLoop(n, scope))
+            loop(n, scope, null, null);
+        checker = savedChecker;
+        return null;
+    }
+
+    /*
+     * Inside the body, the accesses a[i] to the given arrays with the value i has at the
+     * start of the iteration are known to be in bounds.
+     */
+    private void loop(WhileStatement n, Scope scope, Binding index, ArrayList<String> inBoundsArrays) throws Exception {
+        String label1 = LOOP_LABELS.name(loopCounter++);
+        String label2 = LOOP_LABELS.name(loopCounter++);
+        String label3 = LOOP_LABELS.name(loopCounter++);
         
-        buffer.append("\tbr label %" + label1 + "\n\n");
-        buffer.append(label1 + ":\n");
+        jump(label1);
+        String preheader = currentBlock;
+        startBlock(label1);
+
+        // the variables assigned in the body get a phi in the header, which can only be
+        // written once the values at the end of the body are known
+        int header = emit.mark();
+        String[] entryValues = null;
+        Binding[] loopVariables = null;
+        if (values != null) {
+            entryValues = values.clone();
+            loopVariables = loopVariables(n.f4);
+            for (Binding binding : loopVariables)
+                values[binding.slot] = registerName(register++);
+        }
+        String[] headerValues = values == null ? null : values.clone();
 
         String expr = n.f2.accept(this, scope);
-    
-        buffer.append("\tbr i1 " + expr + ", label %" + label2 + ", label %" + label3 + "\n\n");
-        buffer.append(label2 + ":\n");
+        if (checker != null)
+            checker.checkCondition(checkedType, "while");
+        Integer condition = constantValue(expr);
+
+        // a loop that never runs has no back edge, its header has a single predecessor
+        if (condition != null && condition == 0) {
+            if (checker != null)
+                check(n.f4, scope);
+            jump(label3);
+            if (values != null) {
+                emit.beginInsert(header);
+                for (Binding binding : loopVariables) {
+                    int slot = binding.slot;
+                    emit.define("", headerValues[slot], binding.irType, "phi").text(binding.irType).text(" [").value(entryValues[slot]).text(", %").text(preheader).text(']').end();
+                }
+                emit.endInsert(header);
+                values = headerValues;
+            }
+            startBlock(label3);
+            return;
+        }
+
+        if (condition != null)
+            jump(label2);
+        else
+            branch(expr, label2, label3);
+        startBlock(label2);
+
+        ArrayList<String> accesses = new ArrayList<String>();
+        if (inBoundsArrays != null) {
+            for (String array : inBoundsArrays)
+                accesses.add(array + "[" + headerValues[index.slot] + "]");
+            inBounds.addAll(accesses);
+        }
 
         n.f4.accept(this, scope);
 
-        buffer.append("\tbr label %" + label1 + "\n\n");
-        buffer.append(label3 + ":\n");
-        
-        return null; 
+        inBounds.removeAll(accesses);
+        jump(label1);
+        if (values != null) {
+            emit.beginInsert(header);
+            for (Binding binding : loopVariables) {
+                int slot = binding.slot;
+                phi(headerValues[slot], binding, entryValues[slot], preheader, values[slot], currentBlock);
+            }
+            emit.endInsert(header);
+            values = headerValues;
+        }
+        startBlock(label3);
+    }
+
+    /*
+     * Bounds check elimination (-fbce) for counted loops, see CountedLoop. If i starts
+     * at zero or more, an access a[i] with the value i has at the start of the iteration
+     * is in bounds when a is the array of the condition i < (a.length). For the other
+     * int arrays that do not change in the loop, the checks are hoisted to the
+     * preheader instead: if i starts at zero or more and the bound is at most a.length,
+     * a copy of the loop without those checks runs, otherwise the original loop does, so
+     * a program that goes out of bounds still fails at the same access. Only innermost
+     * loops are copied. Returns false, without emitting anything, if there is nothing
+     * to eliminate.
+     */
+    private boolean boundsCheckedLoop(WhileStatement n, Scope scope) throws Exception {
+        CountedLoop loop = CountedLoop.of(n);
+        if (loop == null)
+            return false;
+        Binding index = getBinding(loop.index);
+        if (!index.isPromoted() || index.var.type != TypeUniverse.INT_ID)
+            return false;
+
+        String start = values[index.slot];
+        Integer startValue = parseConstant(start);
+        if (startValue != null && startValue < 0)
+            return false;
+        boolean checkStart = startValue == null;
+
+        boolean boundInvariant = loop.bound != null;
+        for (String name : loop.boundNames)
+            boundInvariant = boundInvariant && isLoopInvariant(loop, name);
+
+        ArrayList<String> provenArrays = new ArrayList<String>();
+        ArrayList<String> checkedArrays = new ArrayList<String>();
+        for (String array : loop.arrays) {
+            if (!isLoopInvariant(loop, array) || getBinding(array).var.type != TypeUniverse.INT_ARRAY_ID)
+                continue;
+            if (boundInvariant && array.equals(loop.boundArray))
+                provenArrays.add(array);
+            else if (boundInvariant && !loop.hasNestedLoops)
+                checkedArrays.add(array);
+        }
+
+        if (checkStart && loop.hasNestedLoops)
+            return false;
+        if (provenArrays.isEmpty() && checkedArrays.isEmpty())
+            return false;
+        if (!checkStart && checkedArrays.isEmpty()) {
+            loop(n, scope, index, provenArrays);
+            return true;
+        }
+
+        // the hoisted checks, any of them failing runs the original loop
+        String slow = BCE_LABELS.name(bceCounter++);
+        String join = BCE_LABELS.name(bceCounter++);
+        String[] entryValues = values.clone();
+        if (checkStart) {
+            emit.define(register, "i1", "icmp").text("sge i32 ").value(start).text(", 0").end();
+            guard(registerName(register++), slow);
+        }
+        if (!checkedArrays.isEmpty()) {
+            Boolean savedLoad = load;
+            load = true;
+            String bound = loop.bound.accept(this, scope);
+            for (String array : checkedArrays) {
+                String pointer = variable(array);
+                emit.define(register, "i1", "icmp").text("ne i32* ").value(pointer).text(", null").end();
+                guard(registerName(register++), slow);
+                emit.define(register, "i32", "load").text("i32, i32* ").value(pointer).end();
+                emit.define(register + 1, "i1", "icmp").text("sle i32 ").value(bound).text(", ").value(register).end();
+                register++;
+                guard(registerName(register++), slow);
+            }
+            load = savedLoad;
+        }
+
+        ArrayList<String> fastArrays = new ArrayList<String>(provenArrays);
+        fastArrays.addAll(checkedArrays);
+        loop(n, scope, index, fastArrays);
+        jump(join);
+        String[] fastValues = values;
+        String fastBlock = currentBlock;
+
+        values = entryValues;
+        startBlock(slow);
+        loop(n, scope, index, checkStart ? null : provenArrays);
+        jump(join);
+        String slowBlock = currentBlock;
+
+        startBlock(join);
+        mergeValues(fastValues, fastBlock, values.clone(), slowBlock);
+        return true;
+    }
+
+    // continues in a new block if the condition holds, at the failed label otherwise
+    private void guard(String condition, String failed) {
+        String next = BCE_LABELS.name(bceCounter++);
+        branch(condition, next, failed);
+        startBlock(next);
+    }
+
+    private boolean isLoopInvariant(CountedLoop loop, String name) {
+        if (loop.assigned(name) > 0)
+            return false;
+        Binding binding = getBinding(name);
+        // a field can be assigned by any method that is called
+        return binding.isPromoted() || (binding.isField() && !loop.hasCalls);
     }
 
-    public String visit(PrintStatement n, String scope) throws Exception { 
+    private boolean isInBounds(String array, Node index) {
+        if (inBounds.isEmpty() || array == null)
+            return false;
+        String name = CountedLoop.identifier(index);
+        if (name == null)
+            return false;
+        Binding binding = getBinding(name);
+        if (!binding.isPromoted() || !inBounds.contains(array + "[" + values[binding.slot] + "]"))
+            return false;
+        boundsChecksEliminated++;
+        return true;
+    }
+
+    // promoted variables assigned in a loop body
+    private Binding[] loopVariables(Node body) throws Exception {
+        HashSet<String> assigned = AssignedVariables.of(body);
+        ArrayList<Binding> loopVariables = new ArrayList<Binding>();
+        for (Binding binding : promoted) {
+            if (assigned.contains(binding.var.name))
+                loopVariables.add(binding);
+        }
+        return loopVariables.toArray(new Binding[loopVariables.size()]);
+    }
+
+    public String visit(PrintStatement n, Scope scope) throws Exception { 
         String ret = n.f2.accept(this, scope);
-        buffer.append("\tcall void (i32) @print_int(i32 " + ret + ")\n");
+        if (checker != null)
+            checker.checkPrint(checkedType);
+        emit.instruction("call").text("void (i32) @print_int(i32 ").value(ret).text(')').end();
     
         return null; 
     }
 
-    public String visit(AndExpression n, String scope) throws Exception {
-        String label1 = "andClause" + andClauseCounter++;
-        String label2 = "andClause" + andClauseCounter++;
-        String label3 = "andClause" + andClauseCounter++;
-        String label4 = "andClause" + andClauseCounter++;
+    public String visit(AndExpression n, Scope scope) throws Exception {
+        String label1 = AND_LABELS.name(andClauseCounter++);
+        String label2 = AND_LABELS.name(andClauseCounter++);
+        String label3 = AND_LABELS.name(andClauseCounter++);
 
         String _register1 = n.f0.accept(this, scope);
+        String lType = checkedType;
+
+        // a constant left clause decides whether the right one is evaluated at all
+        Integer left = constantValue(_register1);
+        if (left != null) {
+            if (left == 0) {
+                if (checker != null)
+                    checkedType = checker.checkBinary(lType, check(n.f2, scope), BOOLEAN, "and", BOOLEAN);
+                return FALSE;
+            }
+            String _register2 = n.f2.accept(this, scope);
+            if (checker != null)
+                checkedType = checker.checkBinary(lType, checkedType, BOOLEAN, "and", BOOLEAN);
+            currentType = TypeUniverse.BOOLEAN_ID;
+            return _register2;
+        }
 
-        buffer.append("\tbr i1 " + _register1 + ", label %" + label1 + ", label %" + label2 + "\n\n");
-        buffer.append(label2 + ":\n");
-        buffer.append("\tbr label %" + label3 + "\n\n");
-        buffer.append(label1 + ":\n");
+        branch(_register1, label1, label2);
+        startBlock(label2);
+        jump(label3);
+        startBlock(label1);
 
         String _register2 = n.f2.accept(this, scope);
+        if (checker != null)
+            checkedType = checker.checkBinary(lType, checkedType, BOOLEAN, "and", BOOLEAN);
+
+        // the right clause may have ended in another block, e.g. of a nested and
+        String rightBlock = currentBlock;
+        jump(label3);
+        startBlock(label3);
+
+        // false on both paths
+        Integer right = constantValue(_register2);
+        if (right != null && right == 0)
+            return FALSE;
 
-        buffer.append("\tbr label %" + label3 + "\n\n");
-        buffer.append(label3 + ":\n");
-        buffer.append("\tbr label %" + label4 + "\n\n");
-        buffer.append(label4 + ":\n");
-        buffer.append("\t%_" + register++ + " = phi i1 [ 0, %" + label2 + "], [" + _register2 + ", %" + label3 + "]\n");
+        emit.define(register, "i1", "phi").text("i1 [ 0, %").text(label2).text("], [").value(_register2).text(", %").text(rightBlock).text(']').end();
 
-        return "%_" + (register - 1);
+        return registerName(register++);
     }
 
-    public String visit(CompareExpression n, String scope) throws Exception { 
+    public String visit(CompareExpression n, Scope scope) throws Exception { 
         String _register1 = n.f0.accept(this, scope);
+        String lType = checkedType;
         String _register2 = n.f2.accept(this, scope);
+        if (checker != null)
+            checkedType = checker.checkBinary(lType, checkedType, INT, "compare(<)", BOOLEAN);
 
-        buffer.append("\t%_" + register++ + " = icmp slt i32 " + _register1 + ", " + _register2 + "\n");
+        Integer left = constantValue(_register1);
+        Integer right = constantValue(_register2);
+        if (left != null && right != null)
+            return left < right ? TRUE : FALSE;
 
-        return "%_" + (register -1); 
+        return binary("icmp", "slt i32 ", "i1", _register1, _register2);
     }
 
-    public String visit(PlusExpression n, String scope) throws Exception { 
+    public String visit(PlusExpression n, Scope scope) throws Exception { 
         String _register1 = n.f0.accept(this, scope);
+        String lType = checkedType;
         String _register2 = n.f2.accept(this, scope);
+        if (checker != null)
+            checkedType = checker.checkBinary(lType, checkedType, INT, "plus(+)", INT);
 
-        buffer.append("\t%_" + register++ + " = add i32 " + _register1 + ", " + _register2 + "\n");
+        Integer left = constantValue(_register1);
+        Integer right = constantValue(_register2);
+        if (left != null && right != null)
+            return Integer.toString(left + right);
 
-        return "%_" + (register -1); 
+        return binary("add", "i32 ", "i32", _register1, _register2);
     }
 
-    public String visit(MinusExpression n, String scope) throws Exception { 
+    public String visit(MinusExpression n, Scope scope) throws Exception { 
         String _register1 = n.f0.accept(this, scope);
+        String lType = checkedType;
         String _register2 = n.f2.accept(this, scope);
+        if (checker != null)
+            checkedType = checker.checkBinary(lType, checkedType, INT, "minus(-)", INT);
 
-        buffer.append("\t%_" + register++ + " = sub i32 " + _register1 + ", " + _register2 + "\n");
+        Integer left = constantValue(_register1);
+        Integer right = constantValue(_register2);
+        if (left != null && right != null)
+            return Integer.toString(left - right);
 
-        return "%_" + (register -1);
+        return binary("sub", "i32 ", "i32", _register1, _register2);
     }
 
-    public String visit(TimesExpression n, String scope) throws Exception { 
+    public String visit(TimesExpression n, Scope scope) throws Exception { 
         String _register1 = n.f0.accept(this, scope);
+        String lType = checkedType;
         String _register2 = n.f2.accept(this, scope);
+        if (checker != null)
+            checkedType = checker.checkBinary(lType, checkedType, INT, "times(*)", INT);
 
-        buffer.append("\t%_" + register++ + " = mul i32 " + _register1 + ", " + _register2 + "\n");
+        Integer left = constantValue(_register1);
+        Integer right = constantValue(_register2);
+        if (left != null && right != null)
+            return Integer.toString(left * right);
 
-        return "%_" + (register -1); 
+        return binary("mul", "i32 ", "i32", _register1, _register2);
     }
 
-    public String visit(MessageSend n, String scope) throws Exception {
+    public String visit(MessageSend n, Scope scope) throws Exception {
         String _register = n.f0.accept(this, scope);
-        int tmp_reg;
+        String callee = null;
 
-        buffer.append("\t%_" + register++ + " = bitcast i8* " + _register + " to i8***\n");
-        buffer.append("\t%_" + register + " = load i8**, i8*** %_" + (register - 1) + "\n");
-        register++;
-
-        HashMap<String, MethodType> methodMap = vtables.get(currentType);
         String methodId = n.f2.accept(this, null);
-        MethodType method = methodMap.get(methodId);
-        int offset = method.offset / 8;
-        String methodParams = getMethodParametersTypes(method);
-
-        buffer.append("\t%_" + register + " = getelementptr i8*, i8** %_" + (register - 1) + ", i32 " + offset + "\n");
-        register++;
-        buffer.append("\t%_" + register + " = load i8*, i8** %_" + (register - 1) + "\n");
-        register++;
-        buffer.append("\t%_" + register + " = bitcast i8* %_" + (register - 1) + " to " + getType(method.returnType) + " (" + methodParams + ")*\n");
-        tmp_reg = register;
-        register++;
+        int firstCheckedArg = 0;
+        MethodType checkedCallee = null;
+        if (checker != null) {
+            checkedCallee = symbolTable.resolveMethod(methodId, checker.checkReceiver(checkedType, scope));
+            firstCheckedArg = checker.beginCall();
+            // the arguments are checked before the method is found missing
+            if (checkedCallee == null) {
+                check(n.f4, scope);
+                checker.checkCall(null, methodId, firstCheckedArg);
+            }
+        }
 
-        n.f4.accept(this, scope);
+        MethodType method = symbolTable.hierarchy.getMethod(currentType, methodId);
 
-        currentCallArgs.add(0, _register);
+        // with -fdevirt, a method no subclass overrides is called directly
+        ClassType target = options.devirtualize ? symbolTable.hierarchy.getSingleTarget(currentType, methodId) : null;
+        if (target != null)
+            callsDevirtualized++;
+        else {
+            int offset = method.offset / ObjectLayout.ENTRY;
 
-        String[] parametersTypes = methodParams.split(",");
-        String args = "";
+            emit.define(register++, "i8***", "bitcast").text("i8* ").value(_register).text(" to i8***").end();
+            emit.define(register, "i8**", "load").text("i8**, i8*** ").value(register - 1).end();
+            register++;
+            emit.define(register, "i8**", "getelementptr").text("i8*, i8** ").value(register - 1).text(", i32 ").text(offset).end();
+            register++;
+            emit.define(register, "i8*", "load").text("i8*, i8** ").value(register - 1).end();
+            register++;
+            String pointerType = methodPointerType(method);
+            emit.define(register, pointerType, "bitcast").text("i8* ").value(register - 1).text(" to ").text(pointerType).end();
+            callee = registerName(register++);
+        }
 
-        if (currentCallArgs.size() == parametersTypes.length) { 
-            for (int i = 0; i < parametersTypes.length; i++) {
-                args = args + parametersTypes[i] + " " + currentCallArgs.get(i) + ","; 
+        int firstArg = currentCallArgs.size();
+        n.f4.accept(this, scope);
+        String returnType = checker != null ? checker.checkCall(checkedCallee, methodId, firstCheckedArg) : null;
+
+        currentCallArgs.add(firstArg, _register);
+        List<String> callArgs = currentCallArgs.subList(firstArg, currentCallArgs.size());
+
+        if (target != null && inliner != null && values != null) {
+            Inliner.Decision decision = inliner.decide(currentClass.name + "." + currentMethod.name, target, method);
+            inlineDecisions.add(decision);
+            if (decision.inlined) {
+                String result = inline(target, method, inliner.declaration(target, method), callArgs);
+                checkedType = returnType;
+                return result;
             }
-            if (!args.isEmpty())
-                args = args.substring(0, args.length() - 1);
         }
 
-        buffer.append("\t%_" + register + " = call " + getType(method.returnType) + " %_" + tmp_reg + "(" + args + ")\n");
-        tmp_reg = register;
-        register++;
+        String irReturnType = getType(method.returnType);
+        emit.define(register, irReturnType, "call").text(irReturnType).text(' ');
+        if (target != null)
+            emit.text('@').text(target.name).text('.').text(methodId);
+        else
+            emit.value(callee);
+        emit.text('(');
+        // the receiver and the arguments, each with the type of its parameter
+        if (callArgs.size() == method.parameterTypes.length + 1) { 
+            emit.text("i8* ").value(callArgs.get(0));
+            for (int i = 1; i < callArgs.size(); i++)
+                emit.text(',').text(getType(method.parameterTypes[i - 1])).text(' ').value(callArgs.get(i));
+        }
+        emit.text(')').end();
         currentType = method.returnType;
-        currentCallArgs.clear();
+        checkedType = returnType;
+        callArgs.clear();
         
-        return "%_" + tmp_reg; 
+        return registerName(register++); 
     }
 
-    public String visit(ExpressionList n, String scope) throws Exception { 
+    public String visit(ExpressionList n, Scope scope) throws Exception { 
         currentCallArgs.add(n.f0.accept(this, scope));
+        if (checker != null)
+            checker.checkCallArg(checkedType, scope);
         n.f1.accept(this, scope);
 
         return null; 
     }
 
-    public String visit(ExpressionTerm n, String scope) throws Exception { 
+    public String visit(ExpressionTerm n, Scope scope) throws Exception { 
         currentCallArgs.add(n.f1.accept(this, scope));
+        if (checker != null)
+            checker.checkCallArg(checkedType, scope);
         return null; 
     }
  
-    public String visit(ExpressionTail n, String scope) throws Exception { 
+    public String visit(ExpressionTail n, Scope scope) throws Exception { 
         return n.f0.accept(this, scope);
     }
 
-    public String visit(Expression n, String scope) throws Exception {
+    public String visit(Expression n, Scope scope) throws Exception {
         return n.f0.accept(this, scope);
     }
 
-    public String visit(ArrayLookup n, String scope) throws Exception { 
-        String label1 = "array_lookup" + arrayLabelCounter++;
-        String label2 = "array_lookup" + arrayLabelCounter++;
-        String label3 = "array_lookup" + arrayLabelCounter++;
+    public String visit(ArrayLookup n, Scope scope) throws Exception { 
+        String label1 = ARRAY_LOOKUP_LABELS.name(arrayLabelCounter++);
+        String label2 = ARRAY_LOOKUP_LABELS.name(arrayLabelCounter++);
+        String label3 = ARRAY_LOOKUP_LABELS.name(arrayLabelCounter++);
+
+        if (isInBounds(CountedLoop.identifier(n.f0), n.f2)) {
+            String array = n.f0.accept(this, scope);
+            String arrayType = checkedType;
+            if (checker != null)
+                checker.checkArray(arrayType);
+            String index = n.f2.accept(this, scope);
+            if (checker != null)
+                checkedType = checker.checkIndex(arrayType, checkedType);
+            emit.define(register, "i32", "add").text("i32 ").value(index).text(", 1").end();
+            emit.define(register + 1, "i32*", "getelementptr").text("i32, i32* ").value(array).text(", i32 ").value(register).end();
+            register += 2;
+            emit.define(register, "i32", "load").text("i32, i32* ").value(register - 1).end();
+            return registerName(register++);
+        }
 
         String _register = n.f0.accept(this, scope);
+        String arrayType = checkedType;
+        if (checker != null)
+            checker.checkArray(arrayType);
         
         int tmpReg;
 
-        buffer.append("\t%_" + register + " = load i32, i32* " + _register + "\n");
+        emit.define(register, "i32", "load").text("i32, i32* ").value(_register).end();
         tmpReg = register;
 
         register++;
         String expr = n.f2.accept(this, scope);
+        if (checker != null)
+            checkedType = checker.checkIndex(arrayType, checkedType);
   
-        buffer.append("\t%_" + register + " = icmp ult i32 " + expr + ", %_" + (tmpReg) + "\n");
+        emit.define(register, "i1", "icmp").text("ult i32 ").value(expr).text(", ").value(tmpReg).end();
 
-        buffer.append("\tbr i1 %_" + register++ + ", label %" + label1 + ", label %" + label2 + "\n\n");
-        buffer.append(label1 + ":\n");
-        buffer.append("\t%_" + register + " = add i32 " + expr + ", 1\n");
-        buffer.append("\t%_" + (register + 1) + " = getelementptr i32, i32* " + _register + ", i32 %_" + register + "\n");
+        branch(registerName(register++), label1, label2);
+        startBlock(label1);
+        emit.define(register, "i32", "add").text("i32 ").value(expr).text(", 1").end();
+        emit.define(register + 1, "i32*", "getelementptr").text("i32, i32* ").value(_register).text(", i32 ").value(register).end();
         tmpReg = ++register;
-        buffer.append("\t%_" + ++register + " = load i32, i32* %_" + tmpReg + "\n");
-        buffer.append("\tbr label %" + label3 + "\n\n");
-        buffer.append(label2 + ":\n");
-        buffer.append("\tcall void @throw_oob()\n");
-        buffer.append("\tbr label %" + label3 + "\n\n");
-        buffer.append(label3 + ":\n");
+        emit.define(++register, "i32", "load").text("i32, i32* ").value(tmpReg).end();
+        jump(label3);
+        startBlock(label2);
+        throwOutOfBounds();
+        startBlock(label3);
         
-        return "%_" + register++; 
+        return registerName(register++); 
     }
 
-    public String visit(ArrayLength n, String scope) throws Exception {
+    public String visit(ArrayLength n, Scope scope) throws Exception {
         String _register = n.f0.accept(this, scope);
+        if (checker != null)
+            checkedType = checker.checkArrayLength(checkedType);
 
-        buffer.append("\t%_" + register++ + " = load i32, i32* " + _register + "\n");
+        emit.define(register, "i32", "load").text("i32, i32* ").value(_register).end();
         
-        return "%_" + (register - 1); 
+        return registerName(register++); 
     }     
 
-    public String visit(NotExpression n, String scope) throws Exception {  
+    public String visit(NotExpression n, Scope scope) throws Exception {  
         String _register = n.f1.accept(this, scope);
-        buffer.append("\t%_" + register++ + " = xor i1 1," + _register + "\n");
+        if (checker != null)
+            checkedType = checker.checkNot(checkedType);
 
-        return "%_" + (register -1); 
+        Integer value = constantValue(_register);
+        if (value != null)
+            return value == 0 ? TRUE : FALSE;
+
+        emit.define(register, "i1", "xor").text("i1 1,").value(_register).end();
+
+        return registerName(register++); 
     }
 
-    public String visit(BooleanArrayAllocationExpression n, String scope) throws Exception {
+    public String visit(BooleanArrayAllocationExpression n, Scope scope) throws Exception {
         String expr = n.f3.accept(this, scope);
+        if (checker != null)
+            checkedType = checker.checkArrayAllocation(checkedType, BOOLEAN);
 
         return arrayAllocation(expr, BOOLEAN);
     }
 
-    public String visit(IntegerArrayAllocationExpression n, String scope) throws Exception {
+    public String visit(IntegerArrayAllocationExpression n, Scope scope) throws Exception {
         String expr = n.f3.accept(this, scope);
+        if (checker != null)
+            checkedType = checker.checkArrayAllocation(checkedType, INT);
 
         return arrayAllocation(expr, INT);
     }
 
     String arrayAllocation(String expr, String type) {
       
-        String label1 = type + "_arr_alloc" + arrayLabelCounter++;
-        String label2 = type + "_arr_alloc" + arrayLabelCounter++;
-
-        buffer.append("\t%_" + register + " = icmp slt i32 " + expr + ", 0\n");
-        buffer.append("\tbr i1 %_" + register++ + ", label %" + label1 + ", label %" + label2 + "\n");
-        buffer.append(label1 + ":\n");
-        buffer.append("\tcall void @throw_oob()\n");
-        buffer.append("\tbr label %" + label2 + "\n");
-        buffer.append(label2 + ":\n");
-        buffer.append("\t%_" + register + " = add i32 " + expr + ", 1\n");
+        NameTable labels = type.equals(INT) ? INT_ALLOC_LABELS : BOOLEAN_ALLOC_LABELS;
+        String label1 = labels.name(arrayLabelCounter++);
+        String label2 = labels.name(arrayLabelCounter++);
+
+        emit.define(register, "i1", "icmp").text("slt i32 ").value(expr).text(", 0").end();
+        emit.instruction("br").text("i1 ").value(register++).text(", label %").text(label1).text(", label %").text(label2).end();
+        startBlock(label1);
+        emit.instruction("call").text("void @throw_oob()").end();
+        emit.instruction("br").text("label %").text(label2).end();
+        startBlock(label2);
+        emit.define(register, "i32", "add").text("i32 ").value(expr).text(", 1").end();
         register++;
-        buffer.append("\t%_" + register + " = call i8* @calloc(i32 4, i32 %_" + (register - 1) + ")\n");
+        emit.define(register, "i8*", "call").text("i8* @calloc(i32 4, i32 ").value(register - 1).text(')').end();
         register++;
-        buffer.append("\t%_" + register + " = bitcast i8* %_" + (register - 1) + " to i32*\n");
+        emit.define(register, "i32*", "bitcast").text("i8* ").value(register - 1).text(" to i32*").end();
         register++;
-        buffer.append("\tstore i32 " + expr + ", i32* %_" + (register - 1) + "\n");
+        emit.instruction("store").text("i32 ").value(expr).text(", i32* ").value(register - 1).end();
 
-        return "%_" + (register - 1);
+        return registerName(register - 1);
     }
 
-    public String visit(AllocationExpression n, String argu) throws Exception { 
+    public String visit(AllocationExpression n, Scope argu) throws Exception { 
         String className = n.f1.accept(this, null);
-        int offset = symbolTable.getClassSize(className);
-        int methodCount = vtables.get(className).size();
-
-        if (methodCount > 0) {
-            buffer.append("\t%_" + register++ + " = call i8* @calloc(i32 1, i32 " + offset + ")\n");
-            buffer.append("\t%_" + register + " = bitcast i8* %_" + (register - 1) + " to i8***\n");
-            buffer.append("\t%_" + ++register + " = getelementptr [" + methodCount + " x i8*], [" + methodCount + " x i8*]* @." + className + "_vtable, i32 0, i32 0\n");
-            buffer.append("\tstore i8** %_" + register + ", i8*** %_" + (register - 1) + "\n");
-            register++;
-            currentType = className;
+        if (checker != null)
+            checkedType = checker.checkAllocation(className);
+        ClassType classType = symbolTable.table.get(className);
+        int offset = symbolTable.getClassSize(classType);
+        int methodCount = layout.slots(classType.id);
+
+        emit.define(register++, "i8*", "call").text("i8* @calloc(i32 1, i32 ").text(offset).text(')').end();
+        emit.define(register, "i8***", "bitcast").text("i8* ").value(register - 1).text(" to i8***").end();
+        emit.define(++register, "i8**", "getelementptr").text('[').text(methodCount).text(" x i8*], [").text(methodCount)
+            .text(" x i8*]* @.").text(className).text("_vtable, i32 0, i32 0").end();
+        emit.instruction("store").text("i8** ").value(register).text(", i8*** ").value(register - 1).end();
+        register++;
+        currentType = classType.id;
 
-        }
-        
-        return "%_" + (register - 3); 
+        return registerName(register - 3);
     }
 
 
-    public String visit(IntegerLiteral n, String argu) throws Exception { 
-        currentType = INT;
+    public String visit(IntegerLiteral n, Scope argu) throws Exception { 
+        currentType = TypeUniverse.INT_ID;
+        checkedType = INT;
         return n.f0.accept(this, argu); 
     }
     
-    public String visit(TrueLiteral n, String argu) { 
-        currentType = BOOLEAN;
+    public String visit(TrueLiteral n, Scope argu) { 
+        currentType = TypeUniverse.BOOLEAN_ID;
+        checkedType = BOOLEAN;
         return TRUE; 
     }
     
-    public String visit(FalseLiteral n, String argu) { 
-        currentType = BOOLEAN;
+    public String visit(FalseLiteral n, Scope argu) { 
+        currentType = TypeUniverse.BOOLEAN_ID;
+        checkedType = BOOLEAN;
         return FALSE; 
     }
 
-    public String visit(ThisExpression n, String scope) {
-        currentType = currentCallClassName;
-        return "%" + THIS; 
+    public String visit(ThisExpression n, Scope scope) {
+        currentType = currentClass.id;
+        checkedType = n.f0.tokenImage;
+        return self; 
     }
 
-    public String visit(BracketExpression n, String argu) throws Exception { return n.f1.accept(this, argu); }
+    public String visit(BracketExpression n, Scope argu) throws Exception { return n.f1.accept(this, argu); }
     
-    public String visit(BooleanType n, String argu) { return BOOLEAN; }
+    public String visit(BooleanType n, Scope argu) { return BOOLEAN; }
 
-	public String visit(IntegerType n, String argu) { return INT; }
+	public String visit(IntegerType n, Scope argu) { return INT; }
 
-	public String visit(BooleanArrayType n, String argu) { return BOOLEAN_ARRAY; }
+	public String visit(BooleanArrayType n, Scope argu) { return BOOLEAN_ARRAY; }
 
-	public String visit(IntegerArrayType n, String argu) { return INT_ARRAY; }
+	public String visit(IntegerArrayType n, Scope argu) { return INT_ARRAY; }
 
-    public String visit(Identifier n, String scope) { 
+    public String visit(Identifier n, Scope scope) { 
         String identifier = n.f0.toString();
 
         if (scope == null)
             return identifier;
 
-        String className = scope.substring(0, scope.indexOf(','));
-        String methodName = scope.substring(scope.indexOf(',') + 1);
-        Variable var = null;
-
-        Boolean isClassField = symbolTable.variableExistsRecursive(identifier, className);
-        Boolean isMethodLocal = symbolTable.table.get(className).methods.get(methodName).locals.containsKey(identifier);
-        Boolean isMethodFormalParam = symbolTable.variableExists(identifier, className, FORMAL_PARAMETER, methodName); 
-           
-        if (isMethodLocal) 
-            var = symbolTable.table.get(className).methods.get(methodName).locals.get(identifier);        
-        else if (isMethodFormalParam) 
-            var = symbolTable.table.get(className).methods.get(methodName).parameters.get(identifier);
-        else if (isClassField) {
-            if (symbolTable.table.get(className).variables.containsKey(identifier))
-                var = symbolTable.table.get(className).variables.get(identifier);
-            else 
-                var = symbolTable.getInheritedField(identifier, className);
-        }
-
-        // if identifier is class field get variable's offset            
-        if (isClassField) {                
-            int offset = var.offset + 8;
-
-            buffer.append("\t%_" + register++ + " = getelementptr i8, i8* %this, i32 " + offset);
-            buffer.append("\n\t%_" + register-- + " = bitcast i8* %_");
-            buffer.append(register + " to " + getType(var.type) + "*\n");
-
-            identifier = "%_" + ++register;
-            register++;
+        if (checker != null) {
+            checkedType = checker.variableType(identifier, scope);
+            // the node it is used in reports the error
+            if (checkedType.equals(UNDECLARED))
+                return UNDECLARED;
+        }
+        return variable(identifier);
+    }
+
+    // value of the variable, or its address if load is off
+    private String variable(String identifier) {
+        Binding binding = getBinding(identifier);
+        if (binding.isPromoted()) {
+            currentType = binding.var.type;
+            return values[binding.slot];
+        }
+
+        // if identifier is class field get its address from the object
+        if (binding.isField()) {                
+            emit.define(register, "i8*", "getelementptr").text("i8, i8* ").value(self).text(", i32 ").text(binding.fieldOffset).end();
+            emit.define(register + 1, types.irPointerType(binding.var.type), "bitcast").text("i8* ").value(register).text(" to ").text(binding.irType).text('*').end();
+
+            identifier = registerName(register + 1);
+            register += 2;
         }
         else  {
-            identifier = "%" + identifier;
+            identifier = binding.address;
         }
 
         if (load) {      
-            buffer.append("\t%_" + register + " = load " + getType(var.type) + ", " + getType(var.type) + "* " + identifier + "\n"); 
-            identifier = "%_" + register++;
+            emit.define(register, binding.irType, "load").text(binding.irType).text(", ").text(binding.irType).text("* ").value(identifier).end();
+            identifier = registerName(register++);
         }
-        currentType = var.type;
+        currentType = binding.var.type;
 
         return identifier;
-     }
+    }
 
-    public String visit(NodeToken n, String argu) {
+    public String visit(NodeToken n, Scope argu) {
         return n.toString();
     }
 }
\ No newline at end of file
@@ -0,0 +1,35 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/*
+ * Local value numbering: within a basic block, a pure instruction that computes the
+ * same thing as an earlier one (same opcode, types and operands) is replaced by it.
+ * Replacing an instruction renames the operands of its users, so chains of equal
+ * computations, e.g. the index arithmetic of repeated a[i], collapse in one walk.
+ */
+class CommonSubexpressionElimination implements IRPass {
+    public String name() {
+        return "cse";
+    }
+
+    public boolean run(IRFunction function) {
+        boolean changed = false;
+        for (IRBasicBlock block : function.blocks) {
+            HashMap<String, IRInstruction> available = new HashMap<String, IRInstruction>();
+            for (IRInstruction instruction : new ArrayList<IRInstruction>(block.instructions)) {
+                if (!instruction.hasResult() || instruction.opcode.equals("phi") || !DeadCodeElimination.PURE.contains(instruction.opcode))
+                    continue;
+                String key = instruction.opcode + " " + instruction.operandText();
+                IRInstruction earlier = available.get(key);
+                if (earlier == null) {
+                    available.put(key, instruction);
+                    continue;
+                }
+                instruction.replaceAllUsesWith(earlier);
+                instruction.erase();
+                changed = true;
+            }
+        }
+        return changed;
+    }
+}
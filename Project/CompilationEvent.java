@@ -0,0 +1,52 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * JFR event for the compilation of a whole file, with the sizes that CompilerStats
+ * collects. The per phase times are in the CompilerPhaseEvents of the same file.
+ */
+@Name("minijava.Compilation")
+@Label("Compilation")
+@Category("MiniJava Compiler")
+@Description("Compilation of a MiniJava file")
+public class CompilationEvent extends jdk.jfr.Event {
+    @Label("File")
+    String file;
+
+    @Label("Succeeded")
+    boolean succeeded;
+
+    @Label("Tokens")
+    long tokens;
+
+    @Label("Statements")
+    long statements;
+
+    @Label("Expressions")
+    long expressions;
+
+    @Label("Classes")
+    int classes;
+
+    @Label("Methods")
+    int methods;
+
+    @Label("Fields")
+    int fields;
+
+    @Label("Locals")
+    int locals;
+
+    @Label("Instructions")
+    long instructions;
+
+    @Label("Registers")
+    long registers;
+
+    @Label("Output Size")
+    @DataAmount(DataAmount.BYTES)
+    long outputBytes;
+}
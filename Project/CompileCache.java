@@ -0,0 +1,231 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/*
+ * On disk cache of compilation results (--cache). An entry holds what compiling a file
+ * printed to stdout and the .ll it produced, under the SHA-256 of the source, the
+ * compiler build and the options that change the output. Only successful compilations
+ * are stored.
+ *
+ * Several compiler processes can share a directory: an entry is written to a temporary
+ * file and renamed into place, so readers see either the whole entry or none, and a
+ * lookup that loses a race with eviction is just a miss. Reading an entry touches it,
+ * and eviction, which one process at a time runs under a lock file, first drops the
+ * entries not used for maxAgeMillis, then the least recently used ones until the cache
+ * fits in maxBytes.
+ */
+class CompileCache {
+    static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    static final int DEFAULT_MAX_AGE_DAYS = 30;
+    static final String SUFFIX = ".entry";
+    static final long TEMP_FILE_AGE_MILLIS = 60L * 60 * 1000;
+
+    static class Entry {
+        byte[] output;
+        byte[] code;
+    }
+
+    final Path directory;
+    final long maxBytes;
+    final long maxAgeMillis;
+
+    CompileCache(String directory, long maxBytes, long maxAgeMillis) throws IOException {
+        this.directory = Paths.get(directory);
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        Files.createDirectories(this.directory);
+    }
+
+    static String defaultDirectory() {
+        String cacheHome = System.getenv("XDG_CACHE_HOME");
+        if (cacheHome == null || cacheHome.isEmpty())
+            cacheHome = Paths.get(System.getProperty("user.home"), ".cache").toString();
+        return Paths.get(cacheHome, "minijava").toString();
+    }
+
+    String key(byte[] source, CompilerOptions options) {
+        MessageDigest digest = sha256();
+        digest.update(compilerVersion().getBytes());
+        digest.update(options.outputFingerprint().getBytes());
+        digest.update(source);
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest())
+            key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return key.toString();
+    }
+
+    // the entry stored under the key, or null
+    Entry lookup(String key) {
+        Path file = directory.resolve(key + SUFFIX);
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        catch (IOException ex) {
+            return null;
+        }
+        // int length of the output, the output, then the code
+        if (bytes.length < 4)
+            return null;
+        int outputLength = ByteBuffer.wrap(bytes).getInt();
+        if (outputLength < 0 || outputLength > bytes.length - 4)
+            return null;
+        Entry entry = new Entry();
+        entry.output = new byte[outputLength];
+        System.arraycopy(bytes, 4, entry.output, 0, outputLength);
+        entry.code = new byte[bytes.length - 4 - outputLength];
+        System.arraycopy(bytes, 4 + outputLength, entry.code, 0, entry.code.length);
+        return entry;
+    }
+
+    void store(String key, byte[] output, byte[] code) throws IOException {
+        Path temp = Files.createTempFile(directory, ".tmp-", SUFFIX);
+        try {
+            ByteBuffer bytes = ByteBuffer.allocate(4 + output.length + code.length);
+            bytes.putInt(output.length).put(output).put(code);
+            Files.write(temp, bytes.array());
+            Files.move(temp, directory.resolve(key + SUFFIX), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // does nothing if another process or thread is evicting already
+    void evict() throws IOException {
+        try (FileChannel lockFile = FileChannel.open(directory.resolve(".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock;
+            try {
+                lock = lockFile.tryLock();
+            }
+            catch (OverlappingFileLockException ex) {
+                return;
+            }
+            if (lock == null)
+                return;
+            try {
+                evictLocked();
+            }
+            finally {
+                lock.release();
+            }
+        }
+    }
+
+    private void evictLocked() throws IOException {
+        long now = System.currentTimeMillis();
+        ArrayList<Path> entries = new ArrayList<Path>();
+        ArrayList<BasicFileAttributes> attributes = new ArrayList<BasicFileAttributes>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                BasicFileAttributes fileAttributes;
+                try {
+                    fileAttributes = Files.readAttributes(file, BasicFileAttributes.class);
+                }
+                catch (NoSuchFileException ex) {
+                    continue;
+                }
+                long age = now - fileAttributes.lastModifiedTime().toMillis();
+                // a temporary file this old belongs to a writer that died
+                boolean temporary = file.getFileName().toString().startsWith(".tmp-");
+                if (age > (temporary ? TEMP_FILE_AGE_MILLIS : maxAgeMillis))
+                    Files.deleteIfExists(file);
+                else if (!temporary) {
+                    entries.add(file);
+                    attributes.add(fileAttributes);
+                }
+            }
+        }
+
+        long total = 0;
+        Integer[] order = new Integer[entries.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            total += attributes.get(i).size();
+        }
+        Arrays.sort(order, Comparator.comparing(i -> attributes.get(i).lastModifiedTime()));
+        for (int i = 0; i < order.length && total > maxBytes; i++) {
+            Files.deleteIfExists(entries.get(order[i]));
+            total -= attributes.get(order[i]).size();
+        }
+    }
+
+    /*
+     * Identifies the compiler build, so rebuilding the compiler invalidates the cache:
+     * the size and modification time of its jar or, when it runs from class files, their
+     * number, total size and newest modification time. It takes a stat of every class
+     * file, once per JVM; the keys hash it with the source, so it is not hashed here.
+     */
+    static String compilerVersion() {
+        return Version.VALUE;
+    }
+
+    private static class Version {
+        static final String VALUE = compute();
+
+        private static String compute() {
+            try {
+                CodeSource codeSource = CompileCache.class.getProtectionDomain().getCodeSource();
+                Path location = codeSource == null ? null : Paths.get(codeSource.getLocation().toURI());
+                if (location == null)
+                    return "unknown";
+                else if (Files.isDirectory(location)) {
+                    long[] classFiles = new long[3];
+                    addClassFiles(location.toFile(), classFiles);
+                    return classFiles[0] + " " + classFiles[1] + " " + classFiles[2];
+                }
+                else
+                    return location + " " + Files.size(location) + " " + Files.getLastModifiedTime(location).toMillis();
+            }
+            catch (IOException | URISyntaxException | SecurityException ex) {
+                return "unknown";
+            }
+        }
+
+        // count, total size and newest modification time of the class files under directory
+        private static void addClassFiles(File directory, long[] classFiles) {
+            File[] files = directory.listFiles();
+            if (files == null)
+                return;
+            for (File file : files) {
+                if (file.getName().endsWith(".class")) {
+                    classFiles[0]++;
+                    classFiles[1] += file.length();
+                    classFiles[2] = Math.max(classFiles[2], file.lastModified());
+                }
+                else if (file.isDirectory())
+                    addClassFiles(file, classFiles);
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
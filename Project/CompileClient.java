@@ -0,0 +1,66 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+
+/*
+ * Thin client of CompileServer: sends its arguments and working directory to the
+ * server, prints what the compilation printed and exits with its status, just like
+ * java Main would. It loads nothing of the compiler itself.
+ *
+ * Usage: java CompileClient [--socket path] <arguments of Main>
+ *        java CompileClient [--socket path] --server-stats | --shutdown
+ */
+public class CompileClient {
+    public static void main(String[] args) throws IOException {
+        String socket = CompileProtocol.defaultSocket();
+        String command = CompileProtocol.COMPILE;
+        ArrayList<String> compilerArgs = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--socket") && i + 1 < args.length)
+                socket = args[++i];
+            else if (args[i].equals("--server-stats"))
+                command = CompileProtocol.STATS;
+            else if (args[i].equals("--shutdown"))
+                command = CompileProtocol.SHUTDOWN;
+            else
+                compilerArgs.add(args[i]);
+        }
+
+        UnixDomainSocketAddress address = CompileProtocol.address(socket);
+        int status;
+        try {
+            CompileProtocol.checkDirectory(address, false);
+        }
+        catch (IOException ex) {
+            System.err.println("Error: will not connect to " + address.getPath() + ": " + ex.getMessage());
+            System.exit(2);
+        }
+        try (SocketChannel channel = CompileProtocol.open()) {
+            channel.connect(address);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeUTF(command);
+            if (command.equals(CompileProtocol.COMPILE)) {
+                out.writeUTF(System.getProperty("user.dir"));
+                out.writeInt(compilerArgs.size());
+                for (String arg : compilerArgs)
+                    out.writeUTF(arg);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            status = in.readInt();
+            CompileProtocol.copyTranscript(in, System.out, System.err);
+        }
+        catch (IOException ex) {
+            System.err.println("Error: no compile server at " + address.getPath() + " (start one with java CompileServer): " + ex.getMessage());
+            status = 2;
+        }
+        System.exit(status);
+    }
+}
@@ -0,0 +1,143 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+
+/*
+ * Wire format between CompileClient and CompileServer. A connection carries one request
+ * and its response:
+ *
+ *     request     UTF command, then for COMPILE: UTF working directory, int argument
+ *                 count, UTF arguments
+ *     response    int exit status, then what the request printed in the order it was
+ *                 printed: chunks of a byte STDOUT or STDERR, an int length and the
+ *                 bytes, ended by a byte END
+ *
+ * The server runs compilations with the rights of its owner, so it only listens on a
+ * Unix domain socket in a directory that belongs to that user and that no one else can
+ * enter, and the client only connects to a socket in such a directory.
+ *
+ * The client only needs this class and the JDK, so it starts without loading the
+ * compiler.
+ */
+class CompileProtocol {
+    static final String COMPILE = "compile";
+    static final String STATS = "stats";
+    static final String SHUTDOWN = "shutdown";
+
+    static final int END = 0;
+    static final int STDOUT = 1;
+    static final int STDERR = 2;
+
+    // $XDG_RUNTIME_DIR/minijava.sock, or a directory of the user in the temporary directory
+    static String defaultSocket() {
+        String runtimeDirectory = System.getenv("XDG_RUNTIME_DIR");
+        if (runtimeDirectory != null && !runtimeDirectory.isEmpty())
+            return Paths.get(runtimeDirectory, "minijava.sock").toString();
+        return Paths.get(System.getProperty("java.io.tmpdir"), "minijava-" + System.getProperty("user.name"), "server.sock").toString();
+    }
+
+    static UnixDomainSocketAddress address(String socket) {
+        return UnixDomainSocketAddress.of(Paths.get(socket).toAbsolutePath());
+    }
+
+    /*
+     * Fails unless the directory of the socket belongs to the user and only the user can
+     * use it. With create, a missing directory is created owner only (0700) first.
+     */
+    static void checkDirectory(UnixDomainSocketAddress address, boolean create) throws IOException {
+        Path directory = address.getPath().getParent();
+        if (create && !Files.exists(directory, LinkOption.NOFOLLOW_LINKS))
+            Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS))
+            throw new IOException(directory + " is not a directory");
+
+        UserPrincipal user = directory.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+        if (!Files.getOwner(directory, LinkOption.NOFOLLOW_LINKS).equals(user))
+            throw new IOException(directory + " belongs to another user");
+        for (PosixFilePermission permission : Files.getPosixFilePermissions(directory, LinkOption.NOFOLLOW_LINKS)) {
+            if (permission != PosixFilePermission.OWNER_READ && permission != PosixFilePermission.OWNER_WRITE
+                && permission != PosixFilePermission.OWNER_EXECUTE)
+                throw new IOException(directory + " can be used by other users, it must be owner only (chmod 700)");
+        }
+    }
+
+    static SocketChannel open() throws IOException {
+        return SocketChannel.open(StandardProtocolFamily.UNIX);
+    }
+
+    // the socket file itself is owner only as well
+    static ServerSocketChannel listen(UnixDomainSocketAddress address) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(address);
+        Files.setPosixFilePermissions(address.getPath(), PosixFilePermissions.fromString("rw-------"));
+        return server;
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /*
+     * What a request prints to its stdout and stderr streams, kept as the chunks of the
+     * response so that the client prints them interleaved as java Main would.
+     */
+    static class Transcript {
+        private final ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+        private final DataOutputStream data = new DataOutputStream(chunks);
+
+        // the stream for STDOUT or STDERR
+        OutputStream stream(int tag) {
+            return new OutputStream() {
+                public void write(int b) throws IOException {
+                    write(new byte[] { (byte)b }, 0, 1);
+                }
+
+                public void write(byte[] bytes, int offset, int length) throws IOException {
+                    append(tag, bytes, offset, length);
+                }
+            };
+        }
+
+        private synchronized void append(int tag, byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0)
+                return;
+            data.writeByte(tag);
+            data.writeInt(length);
+            data.write(bytes, offset, length);
+        }
+
+        synchronized void writeTo(DataOutputStream out) throws IOException {
+            chunks.writeTo(out);
+            out.writeByte(END);
+        }
+    }
+
+    // prints the chunks of a response to out and err until END
+    static void copyTranscript(DataInputStream in, OutputStream out, OutputStream err) throws IOException {
+        for (int tag = in.readByte(); tag != END; tag = in.readByte()) {
+            OutputStream stream = tag == STDOUT ? out : err;
+            stream.write(readBytes(in));
+            stream.flush();
+        }
+    }
+}
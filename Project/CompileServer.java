@@ -0,0 +1,189 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Compiler daemon: keeps one JVM with the compiler classes loaded and compiled by the
+ * JIT, and runs the compilations that CompileClient sends it over a Unix domain socket
+ * that only its owner can reach (see CompileProtocol), so a compile no longer pays for
+ * JVM startup, class loading and warm up. Every request runs like java Main with the
+ * client's arguments and working directory; requests are served concurrently. The
+ * latency of every request, from reading it to writing the response, goes into a
+ * histogram that is printed when the client asks for it and when the server shuts
+ * down.
+ *
+ * Usage: java CompileServer [--socket path] [--warmup file.java] ...
+ */
+public class CompileServer {
+    static final int WARMUP_ROUNDS = 20;
+    static final PrintStream NULL_OUT = new PrintStream(OutputStream.nullOutputStream());
+
+    private final UnixDomainSocketAddress address;
+    private final LatencyHistogram latencies;
+    private final ExecutorService workers;
+    private volatile boolean running;
+    private ServerSocketChannel server;
+
+    CompileServer(UnixDomainSocketAddress address) {
+        this.address = address;
+        this.latencies = new LatencyHistogram();
+        this.workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "compile-request");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.running = true;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String socket = CompileProtocol.defaultSocket();
+        ArrayList<String> warmupFiles = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--socket") && i + 1 < args.length)
+                socket = args[++i];
+            else if (args[i].equals("--warmup") && i + 1 < args.length)
+                warmupFiles.add(args[++i]);
+            else {
+                System.err.println("Usage: java CompileServer [--socket path] [--warmup file.java] ...");
+                System.exit(1);
+            }
+        }
+
+        CompileServer compileServer = new CompileServer(CompileProtocol.address(socket));
+        compileServer.warmUp(warmupFiles);
+        compileServer.serve();
+    }
+
+    // compiles the files a few times, so that the first requests already run JIT compiled code
+    void warmUp(ArrayList<String> files) throws Exception {
+        if (files.isEmpty())
+            return;
+        Path directory = Files.createTempDirectory("minijava-warmup");
+        try {
+            String[] args = new String[files.size()];
+            for (int i = 0; i < args.length; i++)
+                args[i] = new File(files.get(i)).getAbsolutePath();
+            for (int round = 0; round < WARMUP_ROUNDS; round++)
+                Main.run(args, NULL_OUT, NULL_OUT, directory.toString());
+        }
+        finally {
+            for (File file : directory.toFile().listFiles())
+                file.delete();
+            Files.delete(directory);
+        }
+    }
+
+    void serve() throws IOException {
+        try {
+            CompileProtocol.checkDirectory(address, true);
+        }
+        catch (IOException ex) {
+            System.err.println("Error: cannot listen on " + address.getPath() + ": " + ex.getMessage());
+            System.exit(1);
+        }
+        Path path = address.getPath();
+        if (Files.exists(path) && isServing(address)) {
+            System.err.println("Error: a compile server is already running at " + path);
+            System.exit(1);
+        }
+        // left behind by a server that did not shut down cleanly
+        Files.deleteIfExists(path);
+
+        server = CompileProtocol.listen(address);
+        System.err.println("Compile server listening on " + server.getLocalAddress());
+        try {
+            while (running) {
+                SocketChannel channel;
+                try {
+                    channel = server.accept();
+                }
+                catch (IOException ex) {
+                    if (!running)
+                        break;
+                    throw ex;
+                }
+                workers.execute(() -> handle(channel));
+            }
+        }
+        finally {
+            server.close();
+            Files.deleteIfExists(path);
+            workers.shutdown();
+            latencies.print(System.err);
+        }
+    }
+
+    private static boolean isServing(UnixDomainSocketAddress address) {
+        try (SocketChannel channel = CompileProtocol.open()) {
+            return channel.connect(address);
+        }
+        catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        try (SocketChannel connection = channel) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(connection)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(connection)));
+            long start = System.nanoTime();
+            String command = in.readUTF();
+
+            CompileProtocol.Transcript transcript = new CompileProtocol.Transcript();
+            PrintStream outStream = new PrintStream(transcript.stream(CompileProtocol.STDOUT), true);
+            PrintStream errStream = new PrintStream(transcript.stream(CompileProtocol.STDERR), true);
+            int status = 0;
+
+            if (command.equals(CompileProtocol.COMPILE)) {
+                String directory = in.readUTF();
+                String[] args = new String[in.readInt()];
+                for (int i = 0; i < args.length; i++)
+                    args[i] = in.readUTF();
+                try {
+                    status = Main.run(args, outStream, errStream, directory);
+                }
+                // also errors, e.g. the TokenMgrError of a lexical error, are the client's to see
+                catch (Throwable ex) {
+                    ex.printStackTrace(errStream);
+                    status = 1;
+                }
+            }
+            else if (command.equals(CompileProtocol.STATS))
+                latencies.print(outStream);
+            else if (command.equals(CompileProtocol.SHUTDOWN))
+                running = false;
+            else {
+                errStream.println("Error: unknown command \"" + command + "\"");
+                status = 1;
+            }
+
+            outStream.flush();
+            errStream.flush();
+            out.writeInt(status);
+            transcript.writeTo(out);
+            out.flush();
+
+            if (command.equals(CompileProtocol.COMPILE))
+                latencies.record(System.nanoTime() - start);
+            if (!running)
+                server.close();
+        }
+        catch (IOException ex) {
+            System.err.println("Error: " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,361 @@
+import syntaxtree.*;
+import java.io.ByteArrayInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Micro benchmark harness for the compiler phases.
+ *
+ * Every phase (lexing, parse, symbol table, type checking, offsets, code generation) is
+ * measured on its own, type checking and code generation also in the single traversal
+ * that Main runs (checkAndGen), and end to end, over a corpus derived from
+ * Example.java: the seed itself, and the seed with its classes replicated to build
+ * medium and very large programs. Lexing is measured with the generated token manager
+ * reading a stream, and with the SourceLexer reading the mapped file and the file read
+ * the way Main reads it, mapped only from SourceLexer.MAP_THRESHOLD bytes up. For each
+ * benchmark it reports throughput, in operations and in source tokens per second,
+ * average time per operation with its standard deviation over the measured iterations,
+ * and the allocation rate, both per operation and per second, measured on the
+ * benchmark thread. A deviation that is large next to the average means the numbers
+ * need more or longer iterations before they can be compared.
+ *
+ * Usage: java CompilerBenchmark [-seed Example.java] [-wi 10] [-i 15] [-t 1000] [-f regex] [-csv out.csv]
+ */
+public class CompilerBenchmark {
+    static final int[] COPIES = { 1, 50, 1000 };
+    static final String[] SIZES = { "small", "medium", "large" };
+    static final PrintStream NULL_OUT = new PrintStream(OutputStream.nullOutputStream());
+
+    // results are folded in here so that the JIT cannot drop the measured work
+    static volatile int blackhole;
+
+    int warmupIterations = 10;
+    int iterations = 15;
+    long iterationMillis = 1000;
+    String filter = ".*";
+    String csvFile = null;
+    String seedFile = "Example.java";
+
+    // sink that only counts the bytes, so code generation is measured without file I/O
+    static class CountingSink implements IRSink {
+        long size;
+
+        public void write(CharSequence text) { size += text.length(); }
+
+        public long size() { return size; }
+
+        public void close() {}
+    }
+
+    static class Program {
+        String name;
+        byte[] source;
+        // the source written to a file, for the mapped lexer
+        Path file;
+        int lines;
+        int tokens;
+        Goal root;
+        SymbolTable symbolTable;
+    }
+
+    static abstract class Phase {
+        String name;
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        abstract Object run(Program program) throws Exception;
+    }
+
+    static class Result {
+        String benchmark;
+        String program;
+        long operations;
+        long nanos;
+        long allocatedBytes;
+        int tokens;
+        // standard deviation of the time per operation of the iterations
+        double millisPerOpDeviation;
+
+        double opsPerSecond() { return operations * 1e9 / nanos; }
+
+        double tokensPerSecond() { return operations * tokens * 1e9 / nanos; }
+
+        double millisPerOp() { return nanos / 1e6 / operations; }
+
+        double bytesPerOp() { return (double)allocatedBytes / operations; }
+
+        double megabytesPerSecond() { return allocatedBytes / 1048576.0 / (nanos / 1e9); }
+    }
+
+    // the way Main parses a file, with the SourceLexer unless the source needs the generated one
+    static Goal parse(byte[] source) throws ParseException {
+        SourceLexer lexer = SourceLexer.tokenize(ByteBuffer.wrap(source));
+        if (lexer != null)
+            return new MiniJavaParser(lexer).Goal();
+        return new MiniJavaParser(new ByteArrayInputStream(source)).Goal();
+    }
+
+    // number of tokens of the source, without the EOF, read by the generated token manager
+    static int lexStream(byte[] source) {
+        MiniJavaParserTokenManager tokenManager = new MiniJavaParserTokenManager(new JavaCharStream(new ByteArrayInputStream(source)));
+        int tokens = 0;
+        while (tokenManager.getNextToken().kind != MiniJavaParserConstants.EOF)
+            tokens++;
+        return tokens;
+    }
+
+    static SymbolTable collectSymbols(Goal root) throws Exception {
+        SymbolTableVisitor symbolTableVisitor = new SymbolTableVisitor();
+        root.accept(symbolTableVisitor, null);
+        return symbolTableVisitor.symbolTable;
+    }
+
+    // type checking and code generation in one traversal, the way Main runs them
+    static CountingSink checkAndGenerate(Goal root, SymbolTable symbolTable) throws Exception {
+        CountingSink sink = new CountingSink();
+        CodeGeneratorVisitor codeGenVisitor = new CodeGeneratorVisitor(symbolTable, sink);
+        codeGenVisitor.checker = new TypeCheckingVisitor(symbolTable);
+        root.accept(codeGenVisitor, null);
+        codeGenVisitor.release();
+        return sink;
+    }
+
+    static ArrayList<Phase> phases() {
+        ArrayList<Phase> phases = new ArrayList<Phase>();
+        phases.add(new Phase("lexStream") {
+            Object run(Program p) throws Exception { return lexStream(p.source); }
+        });
+        phases.add(new Phase("lexMapped") {
+            Object run(Program p) throws Exception { return SourceLexer.tokenize(SourceLexer.map(p.file.toString())); }
+        });
+        phases.add(new Phase("lexRead") {
+            Object run(Program p) throws Exception { return SourceLexer.tokenize(SourceLexer.read(p.file.toString())); }
+        });
+        phases.add(new Phase("parse") {
+            Object run(Program p) throws Exception { return parse(p.source); }
+        });
+        phases.add(new Phase("symbolTable") {
+            Object run(Program p) throws Exception { return collectSymbols(p.root); }
+        });
+        phases.add(new Phase("typeCheck") {
+            Object run(Program p) throws Exception {
+                TypeCheckingVisitor typeCheckingVisitor = new TypeCheckingVisitor(p.symbolTable);
+                p.root.accept(typeCheckingVisitor, null);
+                return typeCheckingVisitor;
+            }
+        });
+        phases.add(new Phase("offsets") {
+            Object run(Program p) throws Exception {
+                p.symbolTable.calculateOffsets(false);
+                p.symbolTable.printOffsets(NULL_OUT);
+                return p.symbolTable;
+            }
+        });
+        phases.add(new Phase("codeGen") {
+            Object run(Program p) throws Exception {
+                CountingSink sink = new CountingSink();
+                CodeGeneratorVisitor codeGenVisitor = new CodeGeneratorVisitor(p.symbolTable, sink);
+                p.root.accept(codeGenVisitor, null);
+                codeGenVisitor.release();
+                return sink;
+            }
+        });
+        phases.add(new Phase("checkAndGen") {
+            Object run(Program p) throws Exception { return checkAndGenerate(p.root, p.symbolTable); }
+        });
+        phases.add(new Phase("endToEnd") {
+            Object run(Program p) throws Exception {
+                Goal root = parse(p.source);
+                SymbolTable symbolTable = collectSymbols(root);
+                symbolTable.calculateOffsets(false);
+                symbolTable.printOffsets(NULL_OUT);
+                return checkAndGenerate(root, symbolTable);
+            }
+        });
+        return phases;
+    }
+
+    /*
+     * Builds a program from the seed by replicating every class except the main class
+     * copies times, renaming each copy (A -> A_1, A_2, ...). The main class only uses
+     * the original names, so the result is still a valid program.
+     */
+    static String replicate(String seed, int copies) {
+        if (copies == 1)
+            return seed;
+
+        // the first class declaration is the main class
+        Matcher m = Pattern.compile("(?m)^class\\s+(\\w+)").matcher(seed);
+        m.find();
+        m.find();
+        String mainClass = seed.substring(0, m.start());
+        String classes = seed.substring(m.start());
+
+        ArrayList<String> classNames = new ArrayList<String>();
+        do {
+            classNames.add(m.group(1));
+        } while (m.find());
+
+        StringBuilder program = new StringBuilder(mainClass.length() + classes.length() * copies);
+        program.append(mainClass).append(classes);
+        for (int i = 1; i < copies; i++) {
+            String copy = classes;
+            for (String className : classNames)
+                copy = copy.replaceAll("\\b" + className + "\\b", className + "_" + i);
+            program.append('\n').append(copy);
+        }
+        return program.toString();
+    }
+
+    ArrayList<Program> corpus() throws Exception {
+        String seed = new String(Files.readAllBytes(Paths.get(seedFile)));
+        ArrayList<Program> corpus = new ArrayList<Program>();
+        for (int i = 0; i < COPIES.length; i++) {
+            Program program = new Program();
+            String source = replicate(seed, COPIES[i]);
+            program.name = SIZES[i];
+            program.source = source.getBytes();
+            program.lines = source.split("\n").length;
+            program.tokens = lexStream(program.source);
+            program.file = Files.createTempFile("bench-" + program.name, ".java");
+            program.file.toFile().deleteOnExit();
+            Files.write(program.file, program.source);
+            program.root = parse(program.source);
+            program.symbolTable = collectSymbols(program.root);
+            program.root.accept(new TypeCheckingVisitor(program.symbolTable), null);
+            program.symbolTable.calculateOffsets(false);
+            corpus.add(program);
+        }
+        return corpus;
+    }
+
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    Result iteration(Phase phase, Program program) throws Exception {
+        Result result = new Result();
+        long deadline = System.nanoTime() + iterationMillis * 1000000L;
+        long startBytes = allocatedBytes();
+        long start = System.nanoTime();
+        long now;
+        do {
+            blackhole ^= System.identityHashCode(phase.run(program));
+            result.operations++;
+            now = System.nanoTime();
+        } while (now < deadline);
+        result.nanos = now - start;
+        result.allocatedBytes = allocatedBytes() - startBytes;
+        return result;
+    }
+
+    Result measure(Phase phase, Program program) throws Exception {
+        for (int i = 0; i < warmupIterations; i++)
+            iteration(phase, program);
+
+        Result total = new Result();
+        total.benchmark = phase.name;
+        total.program = program.name;
+        total.tokens = program.tokens;
+        double[] millisPerOp = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            Result result = iteration(phase, program);
+            total.operations += result.operations;
+            total.nanos += result.nanos;
+            total.allocatedBytes += result.allocatedBytes;
+            millisPerOp[i] = result.millisPerOp();
+        }
+        if (iterations > 1) {
+            double mean = 0;
+            for (double value : millisPerOp)
+                mean += value / iterations;
+            double squares = 0;
+            for (double value : millisPerOp)
+                squares += (value - mean) * (value - mean);
+            total.millisPerOpDeviation = Math.sqrt(squares / (iterations - 1));
+        }
+        return total;
+    }
+
+    void run() throws Exception {
+        ArrayList<Program> corpus = corpus();
+        for (Program program : corpus)
+            System.out.println("program " + program.name + ": " + program.lines + " lines, " + program.tokens + " tokens, " + program.source.length + " bytes");
+        System.out.println();
+
+        ArrayList<Result> results = new ArrayList<Result>();
+        System.out.println(String.format(Locale.ROOT, "%-12s %-8s %14s %16s %14s %12s %16s %14s",
+                            "Benchmark", "Program", "ops/s", "tokens/s", "ms/op", "stddev ms/op", "alloc B/op", "alloc MB/s"));
+        for (Phase phase : phases()) {
+            if (!phase.name.matches(filter))
+                continue;
+            for (Program program : corpus) {
+                Result r = measure(phase, program);
+                results.add(r);
+                System.out.println(String.format(Locale.ROOT, "%-12s %-8s %14.3f %16.0f %14.4f %12.4f %16.0f %14.1f",
+                                    r.benchmark, r.program, r.opsPerSecond(), r.tokensPerSecond(), r.millisPerOp(), r.millisPerOpDeviation, r.bytesPerOp(), r.megabytesPerSecond()));
+            }
+        }
+
+        if (csvFile != null)
+            writeCsv(results);
+    }
+
+    void writeCsv(ArrayList<Result> results) throws IOException {
+        FileWriter fw = new FileWriter(csvFile);
+        fw.write("benchmark,program,ops_per_s,tokens_per_s,ms_per_op,ms_per_op_stddev,alloc_bytes_per_op,alloc_mb_per_s\n");
+        for (Result r : results)
+            fw.write(String.format(Locale.ROOT, "%s,%s,%.3f,%.0f,%.4f,%.4f,%.0f,%.1f\n",
+                        r.benchmark, r.program, r.opsPerSecond(), r.tokensPerSecond(), r.millisPerOp(), r.millisPerOpDeviation, r.bytesPerOp(), r.megabytesPerSecond()));
+        fw.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        CompilerBenchmark benchmark = new CompilerBenchmark();
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length)
+                usage();
+            switch (args[i]) {
+                case "-seed":
+                    benchmark.seedFile = args[i + 1];
+                    break;
+                case "-wi":
+                    benchmark.warmupIterations = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-i":
+                    benchmark.iterations = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-t":
+                    benchmark.iterationMillis = Long.parseLong(args[i + 1]);
+                    break;
+                case "-f":
+                    benchmark.filter = args[i + 1];
+                    break;
+                case "-csv":
+                    benchmark.csvFile = args[i + 1];
+                    break;
+                default:
+                    usage();
+            }
+        }
+        benchmark.run();
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java CompilerBenchmark [-seed file] [-wi n] [-i n] [-t millis] [-f regex] [-csv file]");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,177 @@
+import java.io.File;
+import java.util.ArrayList;
+
+public class CompilerOptions {
+    static final String DEFAULT_STATS_FILE = "stats.json";
+
+    // -j: threads compiling the files, and checking and generating the methods of each file
+    int jobs;
+    // -O0, -O1 or -O2, see PassManager
+    int optLevel;
+    // JSON report of the compiler statistics, null if not requested
+    String statsFile;
+    // -fmem2reg: keep locals and parameters in SSA registers instead of allocas
+    boolean promoteLocals;
+    // -ffold: fold constant expressions and branches, which implies -fmem2reg so that
+    // constants assigned to locals are propagated too
+    boolean foldConstants;
+    // -fbce: drop the bounds checks of counted loops that can never fail, implies -fmem2reg
+    boolean eliminateBoundsChecks;
+    // -fdevirt: call methods that no subclass overrides directly instead of through the vtable
+    boolean devirtualize;
+    // -finline: replace small methods called directly by their body, implies -fdevirt and
+    // -fmem2reg, which binds the parameters to the arguments
+    boolean inline;
+    // -fpack: lay out the fields of objects aligned and largest first, see ObjectLayout
+    boolean packFields;
+    ArrayList<String> files;
+    // --cache: directory of the CompileCache, null if the cache is not used
+    String cacheDirectory;
+    long cacheMaxBytes;
+    int cacheMaxAgeDays;
+    // where relative names are resolved and the .ll files are written, null for the
+    // current directory
+    String directory;
+
+    CompilerOptions() {
+        jobs = 1;
+        optLevel = 0;
+        statsFile = null;
+        promoteLocals = false;
+        foldConstants = false;
+        eliminateBoundsChecks = false;
+        devirtualize = false;
+        inline = false;
+        packFields = false;
+        files = new ArrayList<String>();
+        cacheDirectory = null;
+        cacheMaxBytes = CompileCache.DEFAULT_MAX_BYTES;
+        cacheMaxAgeDays = CompileCache.DEFAULT_MAX_AGE_DAYS;
+        directory = null;
+    }
+
+    // path of a file name given in the arguments
+    String resolve(String fileName) {
+        if (directory == null || new File(fileName).isAbsolute())
+            return fileName;
+        return new File(directory, fileName).getPath();
+    }
+
+    static CompilerOptions parse(String[] args) {
+        CompilerOptions options = new CompilerOptions();
+        ArrayList<String> flags = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-j")) {
+                if (++i == args.length)
+                    throw new IllegalArgumentException("Error: -j requires the number of parallel jobs");
+                options.jobs = parseJobs(args[i]);
+            }
+            else if (arg.startsWith("-j"))
+                options.jobs = parseJobs(arg.substring(2));
+            else if (arg.equals("-O0") || arg.equals("-O1") || arg.equals("-O2"))
+                options.optLevel = arg.charAt(2) - '0';
+            else if (arg.equals("-fmem2reg") || arg.equals("-ffold") || arg.equals("-fbce") || arg.equals("-fdevirt")
+                     || arg.equals("-finline") || arg.equals("-fpack"))
+                flags.add(arg);
+            else if (arg.equals("--cache"))
+                options.cacheDirectory = CompileCache.defaultDirectory();
+            else if (arg.startsWith("--cache=")) {
+                options.cacheDirectory = arg.substring("--cache=".length());
+                if (options.cacheDirectory.isEmpty())
+                    throw new IllegalArgumentException("Error: --cache= requires a directory");
+            }
+            else if (arg.startsWith("--cache-size="))
+                options.cacheMaxBytes = parsePositive(arg, "--cache-size=") * 1024 * 1024;
+            else if (arg.startsWith("--cache-age="))
+                options.cacheMaxAgeDays = (int)parsePositive(arg, "--cache-age=");
+            else if (arg.equals("--stats"))
+                options.statsFile = DEFAULT_STATS_FILE;
+            else if (arg.startsWith("--stats=")) {
+                options.statsFile = arg.substring("--stats=".length());
+                if (options.statsFile.isEmpty())
+                    throw new IllegalArgumentException("Error: --stats= requires a file name");
+            }
+            else if (arg.startsWith("-"))
+                throw new IllegalArgumentException("Error: unknown option \"" + arg + "\"");
+            else
+                options.files.add(arg);
+        }
+
+        // the last -O wins, and the -f flags are added to what it turns on
+        options.setLevel(options.optLevel);
+        for (String flag : flags)
+            options.setFlag(flag);
+        return options;
+    }
+
+    private void setLevel(int level) {
+        optLevel = level;
+        promoteLocals = level >= 1;
+        foldConstants = level >= 1;
+        eliminateBoundsChecks = level >= 2;
+        devirtualize = level >= 2;
+        inline = level >= 2;
+        packFields = level >= 2;
+    }
+
+    private void setFlag(String flag) {
+        switch (flag) {
+            case "-fmem2reg":
+                promoteLocals = true;
+                break;
+            case "-ffold":
+                foldConstants = true;
+                promoteLocals = true;
+                break;
+            case "-fbce":
+                eliminateBoundsChecks = true;
+                promoteLocals = true;
+                break;
+            case "-fdevirt":
+                devirtualize = true;
+                break;
+            case "-finline":
+                inline = true;
+                devirtualize = true;
+                promoteLocals = true;
+                break;
+            case "-fpack":
+                packFields = true;
+                break;
+        }
+    }
+
+    private static long parsePositive(String arg, String option) {
+        long value;
+        try {
+            value = Long.parseLong(arg.substring(option.length()));
+        }
+        catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Error: invalid value in \"" + arg + "\"");
+        }
+        if (value < 1)
+            throw new IllegalArgumentException("Error: " + option.substring(0, option.length() - 1) + " must be at least 1");
+        return value;
+    }
+
+    // the options that change the generated code, part of the key of cached results
+    String outputFingerprint() {
+        return "O" + optLevel + (promoteLocals ? " mem2reg" : "") + (foldConstants ? " fold" : "")
+            + (eliminateBoundsChecks ? " bce" : "") + (devirtualize ? " devirt" : "") + (inline ? " inline" : "")
+            + (packFields ? " pack" : "");
+    }
+
+    private static int parseJobs(String value) {
+        int jobs;
+        try {
+            jobs = Integer.parseInt(value);
+        }
+        catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Error: invalid number of jobs \"" + value + "\"");
+        }
+        if (jobs < 1)
+            throw new IllegalArgumentException("Error: number of jobs must be at least 1");
+        return jobs;
+    }
+}
@@ -0,0 +1,26 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * JFR event for one phase of the compilation of a file. The duration of the event is
+ * the wall time of the phase. Recording it costs nothing unless a flight recording
+ * with the event enabled is running, e.g. java -XX:StartFlightRecording Main ...
+ */
+@Name("minijava.CompilerPhase")
+@Label("Compiler Phase")
+@Category("MiniJava Compiler")
+@Description("Wall time and allocation of a compiler phase")
+public class CompilerPhaseEvent extends jdk.jfr.Event {
+    @Label("File")
+    String file;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Allocated")
+    @DataAmount(DataAmount.BYTES)
+    long allocatedBytes;
+}
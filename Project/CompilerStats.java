@@ -0,0 +1,311 @@
+import syntaxtree.Goal;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+/*
+ * Statistics of the compilation of one file: wall time and allocated bytes of every
+ * phase, the size of the syntax tree and the symbol table, the size and padding of the
+ * objects of every class, and how much code was emitted, with -finline the inlining
+ * decisions and with -O1 and -O2 the time taken by every optimization pass. Every
+ * phase, the whole compilation and every inlining decision are committed as JFR events
+ * (CompilerPhaseEvent, CompilationEvent, InlineDecisionEvent); with --stats the
+ * statistics of all files are also written to a JSON report.
+ */
+class CompilerStats {
+    static final String PARSE = "parse";
+    static final String SYMBOL_TABLE = "symbolTable";
+    static final String OFFSETS = "offsets";
+    // type checking and code generation, done in the same traversal
+    static final String CHECK_AND_GEN = "checkAndGen";
+    static final String CACHE = "cache";
+
+    static class Phase {
+        String name;
+        long wallNanos;
+        long allocatedBytes;
+    }
+
+    static class ClassLayout {
+        String name;
+        int size;
+        int padding;
+    }
+
+    String file;
+    boolean succeeded;
+    // the result was copied from the CompileCache; of the counts only outputBytes is known
+    boolean cacheHit;
+    ArrayList<Phase> phases;
+
+    // the counts need extra work, so they are only collected when someone looks at them
+    final boolean detailed;
+
+    long tokens;
+    long statements;
+    long expressions;
+    long identifiers;
+
+    int classes;
+    int methods;
+    int fields;
+    int parameters;
+    int locals;
+    int types;
+    ArrayList<ClassLayout> layouts;
+
+    long instructions;
+    long registers;
+    long boundsChecksEliminated;
+    long callsDevirtualized;
+    int fragmentsReused;
+    int fragmentsGenerated;
+    ArrayList<Inliner.Decision> inlineDecisions;
+    ArrayList<PassManager.Timing> passes;
+    long outputBytes;
+
+    private Phase current;
+    private CompilerPhaseEvent event;
+    private long start;
+    private long startBytes;
+    // allocated for the phase on other threads
+    private long workerBytes;
+
+    CompilerStats(String file, boolean report) {
+        this.file = file;
+        this.phases = new ArrayList<Phase>();
+        this.layouts = new ArrayList<ClassLayout>();
+        this.inlineDecisions = new ArrayList<Inliner.Decision>();
+        this.passes = new ArrayList<PassManager.Timing>();
+        this.detailed = report || new CompilationEvent().isEnabled();
+    }
+
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    void begin(String phase) {
+        current = new Phase();
+        current.name = phase;
+        event = new CompilerPhaseEvent();
+        event.begin();
+        startBytes = allocatedBytes();
+        workerBytes = 0;
+        start = System.nanoTime();
+    }
+
+    // counts bytes allocated on other threads, e.g. the workers of -j, in the current phase
+    void addWorkerBytes(long bytes) {
+        workerBytes += bytes;
+    }
+
+    // ends the phase started last, also when it ended with an error
+    void end() {
+        if (current == null)
+            return;
+        current.wallNanos = System.nanoTime() - start;
+        current.allocatedBytes = allocatedBytes() - startBytes + workerBytes;
+        phases.add(current);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = file;
+            event.phase = current.name;
+            event.allocatedBytes = current.allocatedBytes;
+            event.commit();
+        }
+        current = null;
+        event = null;
+    }
+
+    void countSyntaxTree(Goal root) throws Exception {
+        if (!detailed)
+            return;
+        AstCounter counter = new AstCounter();
+        root.accept(counter);
+        tokens = counter.tokens;
+        statements = counter.statements;
+        expressions = counter.expressions;
+        identifiers = counter.identifiers;
+    }
+
+    void countSymbols(SymbolTable symbolTable) {
+        if (!detailed)
+            return;
+        classes = symbolTable.table.size();
+        methods = symbolTable.types.methodCount();
+        types = symbolTable.types.size();
+        for (ClassType classType : symbolTable.table.values()) {
+            fields += classType.variables.size();
+            for (MethodType method : classType.methods.values()) {
+                parameters += method.parameters.size();
+                locals += method.locals.size();
+            }
+        }
+    }
+
+    void countLayout(SymbolTable symbolTable) {
+        if (!detailed)
+            return;
+        for (ClassType classType : symbolTable.table.values()) {
+            ClassLayout layout = new ClassLayout();
+            layout.name = classType.name;
+            layout.size = symbolTable.layout.size(classType.id);
+            layout.padding = symbolTable.layout.padding(classType.id);
+            layouts.add(layout);
+        }
+    }
+
+    void countCode(CodeGeneratorVisitor codeGenerator, IRSink sink) {
+        instructions = codeGenerator.instructionCount;
+        registers = codeGenerator.registerCount;
+        boundsChecksEliminated = codeGenerator.boundsChecksEliminated;
+        callsDevirtualized = codeGenerator.callsDevirtualized;
+        inlineDecisions = codeGenerator.inlineDecisions;
+        if (codeGenerator.fragments != null) {
+            fragmentsReused = codeGenerator.fragments.hits.get();
+            fragmentsGenerated = codeGenerator.fragments.misses.get();
+        }
+        passes = new ArrayList<PassManager.Timing>(codeGenerator.passManager.timings.values());
+        outputBytes = sink.size();
+    }
+
+    void finish(boolean succeeded) {
+        end();
+        this.succeeded = succeeded;
+
+        for (Inliner.Decision decision : inlineDecisions) {
+            InlineDecisionEvent inlineEvent = new InlineDecisionEvent();
+            if (!inlineEvent.isEnabled())
+                break;
+            inlineEvent.file = file;
+            inlineEvent.caller = decision.caller;
+            inlineEvent.callee = decision.callee;
+            inlineEvent.cost = decision.cost;
+            inlineEvent.budget = Inliner.BUDGET;
+            inlineEvent.inlined = decision.inlined;
+            inlineEvent.reason = decision.reason;
+            inlineEvent.commit();
+        }
+
+        CompilationEvent event = new CompilationEvent();
+        if (!event.isEnabled())
+            return;
+        event.file = file;
+        event.succeeded = succeeded;
+        event.tokens = tokens;
+        event.statements = statements;
+        event.expressions = expressions;
+        event.classes = classes;
+        event.methods = methods;
+        event.fields = fields;
+        event.locals = locals;
+        event.instructions = instructions;
+        event.registers = registers;
+        event.outputBytes = outputBytes;
+        event.commit();
+    }
+
+    void appendJson(StringBuilder json) {
+        json.append("    {\n");
+        json.append("      \"file\": \"").append(escape(file)).append("\",\n");
+        json.append("      \"succeeded\": ").append(succeeded).append(",\n");
+        json.append("      \"cacheHit\": ").append(cacheHit).append(",\n");
+        json.append("      \"phases\": [");
+        for (int i = 0; i < phases.size(); i++) {
+            Phase phase = phases.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("        { \"name\": \"").append(phase.name)
+                .append("\", \"wallNanos\": ").append(phase.wallNanos)
+                .append(", \"allocatedBytes\": ").append(phase.allocatedBytes).append(" }");
+        }
+        json.append(phases.isEmpty() ? "],\n" : "\n      ],\n");
+        if (cacheHit) {
+            // nothing was compiled, so only the size of the copied code is known
+            json.append("      \"syntaxTree\": null,\n");
+            json.append("      \"symbolTable\": null,\n");
+            json.append("      \"layout\": null,\n");
+            json.append("      \"code\": { \"outputBytes\": ").append(outputBytes).append(" },\n");
+            json.append("      \"inlining\": null,\n");
+            json.append("      \"passes\": null\n");
+        }
+        else {
+            json.append("      \"syntaxTree\": { \"tokens\": ").append(tokens)
+                .append(", \"statements\": ").append(statements)
+                .append(", \"expressions\": ").append(expressions)
+                .append(", \"identifiers\": ").append(identifiers).append(" },\n");
+            json.append("      \"symbolTable\": { \"classes\": ").append(classes)
+                .append(", \"methods\": ").append(methods)
+                .append(", \"fields\": ").append(fields)
+                .append(", \"parameters\": ").append(parameters)
+                .append(", \"locals\": ").append(locals)
+                .append(", \"types\": ").append(types).append(" },\n");
+            json.append("      \"layout\": [");
+            for (int i = 0; i < layouts.size(); i++) {
+                ClassLayout layout = layouts.get(i);
+                json.append(i == 0 ? "\n" : ",\n");
+                json.append("        { \"class\": \"").append(layout.name)
+                    .append("\", \"size\": ").append(layout.size)
+                    .append(", \"padding\": ").append(layout.padding).append(" }");
+            }
+            json.append(layouts.isEmpty() ? "],\n" : "\n      ],\n");
+            json.append("      \"code\": { \"instructions\": ").append(instructions)
+                .append(", \"registers\": ").append(registers)
+                .append(", \"boundsChecksEliminated\": ").append(boundsChecksEliminated)
+                .append(", \"callsDevirtualized\": ").append(callsDevirtualized)
+                .append(", \"fragmentsReused\": ").append(fragmentsReused)
+                .append(", \"fragmentsGenerated\": ").append(fragmentsGenerated)
+                .append(", \"outputBytes\": ").append(outputBytes).append(" },\n");
+            json.append("      \"inlining\": [");
+            for (int i = 0; i < inlineDecisions.size(); i++) {
+                Inliner.Decision decision = inlineDecisions.get(i);
+                json.append(i == 0 ? "\n" : ",\n");
+                json.append("        { \"caller\": \"").append(decision.caller)
+                    .append("\", \"callee\": \"").append(decision.callee)
+                    .append("\", \"cost\": ").append(decision.cost)
+                    .append(", \"budget\": ").append(Inliner.BUDGET)
+                    .append(", \"inlined\": ").append(decision.inlined)
+                    .append(", \"reason\": \"").append(decision.reason).append("\" }");
+            }
+            json.append(inlineDecisions.isEmpty() ? "],\n" : "\n      ],\n");
+            json.append("      \"passes\": [");
+            for (int i = 0; i < passes.size(); i++) {
+                PassManager.Timing pass = passes.get(i);
+                json.append(i == 0 ? "\n" : ",\n");
+                json.append("        { \"name\": \"").append(pass.name)
+                    .append("\", \"wallNanos\": ").append(pass.wallNanos)
+                    .append(", \"changedFunctions\": ").append(pass.changed).append(" }");
+            }
+            json.append(passes.isEmpty() ? "]\n" : "\n      ]\n");
+        }
+        json.append("    }");
+    }
+
+    static void writeReport(String fileName, CompilerStats[] stats) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"files\": [");
+        for (int i = 0; i < stats.length; i++) {
+            json.append(i == 0 ? "\n" : ",\n");
+            stats[i].appendJson(json);
+        }
+        json.append(stats.length == 0 ? "]\n}\n" : "\n  ]\n}\n");
+        Files.write(Paths.get(fileName), json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                escaped.append('\\').append(c);
+            else if (c < 0x20)
+                escaped.append(String.format("\\u%04x", (int)c));
+            else
+                escaped.append(c);
+        }
+        return escaped.toString();
+    }
+}
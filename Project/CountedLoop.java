@@ -0,0 +1,180 @@
+import syntaxtree.*;
+import visitor.DepthFirstVisitor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/*
+ * Shape of a counted loop, for bounds check elimination:
+ *
+ *     while (i < bound) {
+ *         ...
+ *         i = i + 1;
+ *         ...
+ *     }
+ *
+ * where the increment is a statement of the loop body itself (so it runs exactly once
+ * per iteration) and the only assignment to i in the loop. If i starts at a non
+ * negative value, every value it has at the start of the body is in [0, bound).
+ * Also collects the arrays indexed by i in the body, and what is needed to decide
+ * whether they and the bound are loop invariant.
+ */
+class CountedLoop extends DepthFirstVisitor {
+    // the induction variable
+    String index;
+    // the bound of the loop condition, if it is side effect free and cannot throw
+    PrimaryExpression bound;
+    // names used by the bound, which must not change in the loop
+    HashSet<String> boundNames;
+    // the array in a condition of the form i < (a.length), or null
+    String boundArray;
+    // arrays accessed as a[i] in the body, in order of first appearance
+    ArrayList<String> arrays;
+
+    HashMap<String, Integer> assignments;
+    boolean hasCalls;
+    boolean hasNestedLoops;
+
+    private CountedLoop() {
+        boundNames = new HashSet<String>();
+        arrays = new ArrayList<String>();
+        assignments = new HashMap<String, Integer>();
+    }
+
+    // the counted loop shape of the while statement, or null if it does not have it
+    static CountedLoop of(WhileStatement n) throws Exception {
+        Node condition = unwrap(n.f2);
+        if (!(condition instanceof CompareExpression))
+            return null;
+        CompareExpression compare = (CompareExpression)condition;
+        String index = identifier(compare.f0);
+        if (index == null || !(n.f4.f0.choice instanceof Block))
+            return null;
+
+        CountedLoop loop = new CountedLoop();
+        loop.index = index;
+        n.f2.accept(loop);
+        n.f4.accept(loop);
+        // accesses were collected for every index, keep the ones of the induction variable
+        loop.arrays.removeIf(access -> !access.endsWith("[" + index + "]"));
+        loop.arrays.replaceAll(access -> access.substring(0, access.indexOf('[')));
+
+        if (loop.assigned(index) != 1 || !loop.incrementedOnce((Block)n.f4.f0.choice))
+            return null;
+
+        if (loop.pure(compare.f2)) {
+            loop.bound = compare.f2;
+            Node bound = unwrap(compare.f2);
+            if (bound instanceof ArrayLength)
+                loop.boundArray = identifier(((ArrayLength)bound).f0);
+        }
+        return loop;
+    }
+
+    int assigned(String name) {
+        Integer count = assignments.get(name);
+        return count == null ? 0 : count;
+    }
+
+    // the body has i = i + 1 (or i = 1 + i) as one of its own statements
+    private boolean incrementedOnce(Block body) {
+        for (Node node : body.f1.nodes) {
+            Node statement = ((Statement)node).f0.choice;
+            if (!(statement instanceof AssignmentStatement))
+                continue;
+            AssignmentStatement assignment = (AssignmentStatement)statement;
+            if (!assignment.f0.f0.toString().equals(index))
+                continue;
+            Node value = unwrap(assignment.f2);
+            if (!(value instanceof PlusExpression))
+                return false;
+            PlusExpression plus = (PlusExpression)value;
+            return (index.equals(identifier(plus.f0)) && isOne(plus.f2))
+                || (index.equals(identifier(plus.f2)) && isOne(plus.f0));
+        }
+        return false;
+    }
+
+    private static boolean isOne(Node node) {
+        node = unwrap(node);
+        return node instanceof IntegerLiteral && ((IntegerLiteral)node).f0.toString().equals("1");
+    }
+
+    // literals, variables, arithmetic and array lengths only
+    private boolean pure(Node node) {
+        node = unwrap(node);
+        if (node instanceof IntegerLiteral)
+            return true;
+        if (node instanceof Identifier) {
+            boundNames.add(((Identifier)node).f0.toString());
+            return true;
+        }
+        if (node instanceof PlusExpression)
+            return pure(((PlusExpression)node).f0) && pure(((PlusExpression)node).f2);
+        if (node instanceof MinusExpression)
+            return pure(((MinusExpression)node).f0) && pure(((MinusExpression)node).f2);
+        if (node instanceof TimesExpression)
+            return pure(((TimesExpression)node).f0) && pure(((TimesExpression)node).f2);
+        if (node instanceof ArrayLength) {
+            String array = identifier(((ArrayLength)node).f0);
+            if (array == null)
+                return false;
+            boundNames.add(array);
+            return true;
+        }
+        return false;
+    }
+
+    // the expression without brackets and the single choice wrappers of the grammar
+    static Node unwrap(Node node) {
+        while (true) {
+            if (node instanceof Expression)
+                node = ((Expression)node).f0.choice;
+            else if (node instanceof Clause)
+                node = ((Clause)node).f0.choice;
+            else if (node instanceof PrimaryExpression)
+                node = ((PrimaryExpression)node).f0.choice;
+            else if (node instanceof BracketExpression)
+                node = ((BracketExpression)node).f1;
+            else
+                return node;
+        }
+    }
+
+    // name of the variable if the expression is just a variable
+    static String identifier(Node node) {
+        node = unwrap(node);
+        return node instanceof Identifier ? ((Identifier)node).f0.toString() : null;
+    }
+
+    private void access(String array, String index) {
+        if (array != null && index != null && !arrays.contains(array + "[" + index + "]"))
+            arrays.add(array + "[" + index + "]");
+    }
+
+    public void visit(AssignmentStatement n) throws Exception {
+        String name = n.f0.f0.toString();
+        assignments.put(name, assigned(name) + 1);
+        super.visit(n);
+    }
+
+    public void visit(ArrayAssignmentStatement n) throws Exception {
+        access(n.f0.f0.toString(), identifier(n.f2));
+        super.visit(n);
+    }
+
+    public void visit(ArrayLookup n) throws Exception {
+        access(identifier(n.f0), identifier(n.f2));
+        super.visit(n);
+    }
+
+    public void visit(MessageSend n) throws Exception {
+        hasCalls = true;
+        super.visit(n);
+    }
+
+    public void visit(WhileStatement n) throws Exception {
+        hasNestedLoops = true;
+        super.visit(n);
+    }
+}
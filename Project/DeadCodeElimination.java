@@ -0,0 +1,37 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/*
+ * Removes instructions whose result is never used and that have no effect besides
+ * computing it. Removing one can leave the instructions it used unused, so those are
+ * looked at again.
+ */
+class DeadCodeElimination implements IRPass {
+    static final HashSet<String> PURE = new HashSet<String>(Arrays.asList(
+        "add", "sub", "mul", "and", "or", "xor", "icmp", "getelementptr", "bitcast", "zext", "sext", "trunc", "phi"));
+
+    public String name() {
+        return "dce";
+    }
+
+    public boolean run(IRFunction function) {
+        ArrayList<IRInstruction> worklist = new ArrayList<IRInstruction>();
+        for (IRBasicBlock block : function.blocks)
+            worklist.addAll(block.instructions);
+
+        boolean changed = false;
+        while (!worklist.isEmpty()) {
+            IRInstruction instruction = worklist.remove(worklist.size() - 1);
+            if (instruction.block == null || !instruction.hasResult() || instruction.isUsed() || !PURE.contains(instruction.opcode))
+                continue;
+            for (IRValue operand : instruction.operands) {
+                if (operand instanceof IRInstruction)
+                    worklist.add((IRInstruction)operand);
+            }
+            instruction.erase();
+            changed = true;
+        }
+        return changed;
+    }
+}
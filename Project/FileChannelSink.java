@@ -0,0 +1,90 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Writes the IR to a file through a FileChannel. Text is encoded into a direct buffer
+ * that is written out whenever it fills up. Once the file grows past SPILL_THRESHOLD
+ * the sink stops copying through the buffer and encodes straight into memory mapped
+ * regions of the file instead; the file is truncated to the real size on close. The
+ * direct buffer is kept for the next sink opened on the same thread.
+ */
+public class FileChannelSink implements IRSink {
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final long SPILL_THRESHOLD = 32L * 1024 * 1024;
+    static final int MAP_SIZE = 16 * 1024 * 1024;
+    // the direct buffer of the last sink closed on each thread
+    private static final ThreadLocal<ByteBuffer> FREE_BUFFER = new ThreadLocal<ByteBuffer>();
+
+    private final FileChannel channel;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer direct;
+    private ByteBuffer buffer;
+    private boolean mapped;
+    // bytes of the file before the start of buffer
+    private long position;
+
+    public FileChannelSink(String fileName) throws IOException {
+        channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        encoder = StandardCharsets.UTF_8.newEncoder();
+        ByteBuffer free = FREE_BUFFER.get();
+        if (free != null)
+            FREE_BUFFER.set(null);
+        direct = free != null ? free : ByteBuffer.allocateDirect(BUFFER_SIZE);
+        buffer = direct;
+        mapped = false;
+        position = 0;
+    }
+
+    public void write(CharSequence text) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(text);
+        while (encoder.encode(chars, buffer, false).isOverflow())
+            flush();
+    }
+
+    public long size() {
+        return position + buffer.position();
+    }
+
+    private void flush() throws IOException {
+        if (mapped) {
+            position += buffer.position();
+        }
+        else {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                position += channel.write(buffer, position);
+            buffer.clear();
+            if (position < SPILL_THRESHOLD)
+                return;
+            mapped = true;
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, MAP_SIZE);
+    }
+
+    public void close() throws IOException {
+        try {
+            if (mapped) {
+                position += buffer.position();
+                channel.truncate(position);
+            }
+            else {
+                buffer.flip();
+                while (buffer.hasRemaining())
+                    position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+        finally {
+            channel.close();
+            direct.clear();
+            FREE_BUFFER.set(direct);
+        }
+    }
+}
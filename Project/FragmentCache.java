@@ -0,0 +1,314 @@
+import syntaxtree.*;
+import visitor.DepthFirstVisitor;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Cache of the IR of single methods, kept in the CompileCache directory, so that when
+ * one method of a program changes only that method is generated again. The key of a
+ * method is the hash of its tokens together with what its code depends on besides its
+ * own body:
+ *
+ *   - the part of the layout of the program it reads: its class, the classes it names,
+ *     those of the fields of its class and those returned by the methods it calls, each
+ *     with its super classes, size, vtable length and field offsets; and every method
+ *     with the name of one it calls, with its class, vtable slot and signature (so also
+ *     which methods are overridden, for -fdevirt);
+ *   - with -finline, the tokens of every method it may inline, found through the calls
+ *     by name, and the layout that those read;
+ *   - the code generation options and the compiler build;
+ *   - whether the code generator starts the method loading identifiers.
+ *
+ * Labels are numbered across the whole file, so a fragment is stored with its label
+ * numbers relative to the counters at the start of the method and renumbered from the
+ * current counters when it is reused.
+ */
+class FragmentCache extends DepthFirstVisitor {
+    // label prefixes and the counter of CodeGeneratorVisitor that numbers them
+    static final String[][] LABELS = {
+        { "andClause" },
+        { "array_assign", "array_lookup", "int_arr_alloc", "boolean_arr_alloc" },
+        { "loop" },
+        { "if" },
+        { "bce" },
+    };
+    static final int COUNTERS = LABELS.length;
+
+    static class Fragment {
+        String text;
+        // labels used by the method, per counter
+        int[] labels;
+        int registers;
+        long boundsChecksEliminated;
+        long callsDevirtualized;
+        // whether the code generator is loading identifiers after the method
+        boolean load;
+    }
+
+    private static final Pattern[] LABEL_PATTERNS = new Pattern[COUNTERS];
+    static {
+        for (int counter = 0; counter < COUNTERS; counter++) {
+            String prefixes = String.join("|", LABELS[counter]);
+            // the label of a block, a branch target and the block of a phi value
+            LABEL_PATTERNS[counter] = Pattern.compile("(?m)(^|label %|, %)(" + prefixes + ")(\\d+)(?=:$|\\]|,|$)");
+        }
+    }
+
+    private final CompileCache cache;
+    private final SymbolTable symbolTable;
+    private final String prefix;
+    private final boolean inline;
+    // Class.method -> hash of its tokens
+    private final HashMap<String, String> methods;
+    // method name -> hashes of the methods with that name, and the names they call
+    private final HashMap<String, ArrayList<String>> methodsByName;
+    private final HashMap<String, HashSet<String>> callGraph;
+    // Class.method -> the names it calls and the identifiers it uses, and the identifiers
+    // used by the methods with a name
+    private final HashMap<String, HashSet<String>> calls;
+    private final HashMap<String, HashSet<String>> identifiers;
+    private final HashMap<String, HashSet<String>> identifiersByName;
+    // method name -> classes that declare a method with that name
+    private final HashMap<String, ArrayList<ClassType>> declarers;
+
+    private String currentClass;
+    private HashSet<String> currentCalls;
+    private HashSet<String> currentIdentifiers;
+    private StringBuilder tokens;
+
+    // counted by every thread generating methods
+    final AtomicInteger hits;
+    final AtomicInteger misses;
+
+    FragmentCache(CompileCache cache, SymbolTable symbolTable, Goal root, CompilerOptions options) throws Exception {
+        this.cache = cache;
+        this.symbolTable = symbolTable;
+        this.inline = options.inline;
+        this.methods = new HashMap<String, String>();
+        this.methodsByName = new HashMap<String, ArrayList<String>>();
+        this.callGraph = new HashMap<String, HashSet<String>>();
+        this.calls = new HashMap<String, HashSet<String>>();
+        this.identifiers = new HashMap<String, HashSet<String>>();
+        this.identifiersByName = new HashMap<String, HashSet<String>>();
+        this.declarers = new HashMap<String, ArrayList<ClassType>>();
+        this.hits = new AtomicInteger();
+        this.misses = new AtomicInteger();
+        root.accept(this);
+        for (ClassType classType : symbolTable.table.values()) {
+            for (String name : classType.methods.keySet())
+                declarers.computeIfAbsent(name, k -> new ArrayList<ClassType>()).add(classType);
+        }
+        this.prefix = CompileCache.compilerVersion() + "\n" + options.outputFingerprint() + "\n";
+    }
+
+    /*
+     * The layout facts that the method reads, and with -finline the methods with the
+     * names in inlined, one per line in a stable order: the classes, see
+     * appendClass, then the methods that the calls may resolve to.
+     */
+    private void appendLayout(StringBuilder key, String className, String methodName, HashSet<String> inlined) {
+        String method = className + "." + methodName;
+        TreeSet<String> callees = new TreeSet<String>(calls.get(method));
+        HashSet<String> used = new HashSet<String>(identifiers.get(method));
+        for (String name : inlined) {
+            callees.add(name);
+            used.addAll(identifiersByName.get(name));
+        }
+
+        TreeSet<String> classes = new TreeSet<String>();
+        for (ClassType classType = symbolTable.table.get(className); classType != null; classType = symbolTable.getClass(classType.superClass)) {
+            addWithSuperClasses(classType, classes);
+            for (Variable field : classType.variables.values())
+                addWithSuperClasses(symbolTable.getClass(field.type), classes);
+        }
+        for (String identifier : used)
+            addWithSuperClasses(symbolTable.table.get(identifier), classes);
+        ArrayList<String> targets = new ArrayList<String>();
+        for (String name : callees) {
+            for (ClassType declarer : declarers.getOrDefault(name, new ArrayList<ClassType>())) {
+                MethodType callee = declarer.methods.get(name);
+                addWithSuperClasses(declarer, classes);
+                addWithSuperClasses(symbolTable.getClass(callee.returnType), classes);
+                StringBuilder target = new StringBuilder(declarer.name).append('.').append(name).append('(');
+                for (int parameterType : callee.parameterTypes)
+                    target.append(symbolTable.types.name(parameterType)).append(',');
+                targets.add(target.append(')').append(symbolTable.types.name(callee.returnType)).append('@').append(callee.offset).toString());
+            }
+        }
+        targets.sort(null);
+
+        for (String name : classes)
+            appendClass(key, symbolTable.table.get(name));
+        for (String target : targets)
+            key.append(target).append('\n');
+    }
+
+    // the class and its super classes, which are in classes too if the class already is
+    private void addWithSuperClasses(ClassType classType, TreeSet<String> classes) {
+        for (; classType != null && classes.add(classType.name); classType = symbolTable.getClass(classType.superClass))
+            ;
+    }
+
+    // Class extends Super, its object size and vtable length, and its fields with their offsets
+    private void appendClass(StringBuilder key, ClassType classType) {
+        key.append(classType.name).append(" extends ").append(classType.hasSuperClass() ? symbolTable.types.name(classType.superClass) : "-")
+           .append(' ').append(symbolTable.layout.size(classType.id)).append(' ').append(symbolTable.layout.slots(classType.id));
+        for (Variable field : classType.variables.values())
+            key.append(' ').append(field.name).append(':').append(symbolTable.types.name(field.type)).append('@').append(field.offset);
+        key.append('\n');
+    }
+
+    String key(String className, String methodName, boolean load) {
+        StringBuilder key = new StringBuilder(prefix);
+        key.append(className).append('.').append(methodName).append(' ').append(methods.get(className + "." + methodName));
+        key.append(load ? " load\n" : "\n");
+        HashSet<String> reached = new HashSet<String>();
+        if (inline) {
+            // every method that may be inlined, directly or by the methods inlined
+            ArrayList<String> pending = new ArrayList<String>(callGraph.get(methodName));
+            while (!pending.isEmpty()) {
+                String name = pending.remove(pending.size() - 1);
+                if (!reached.add(name) || !methodsByName.containsKey(name))
+                    continue;
+                pending.addAll(callGraph.get(name));
+            }
+            ArrayList<String> callees = new ArrayList<String>();
+            for (String name : reached) {
+                if (methodsByName.containsKey(name))
+                    callees.addAll(methodsByName.get(name));
+            }
+            callees.sort(null);
+            for (String callee : callees)
+                key.append(callee).append('\n');
+            reached.retainAll(methodsByName.keySet());
+        }
+        appendLayout(key, className, methodName, reached);
+        return "m-" + sha256(key.toString());
+    }
+
+    // the fragment with its labels numbered from the given counters, or null
+    Fragment lookup(String key, int[] counters) {
+        CompileCache.Entry entry = cache.lookup(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        String[] facts = new String(entry.output, StandardCharsets.UTF_8).trim().split(" ");
+        if (facts.length != COUNTERS + 4) {
+            misses.incrementAndGet();
+            return null;
+        }
+        Fragment fragment = new Fragment();
+        fragment.labels = new int[COUNTERS];
+        for (int counter = 0; counter < COUNTERS; counter++)
+            fragment.labels[counter] = Integer.parseInt(facts[counter]);
+        fragment.registers = Integer.parseInt(facts[COUNTERS]);
+        fragment.boundsChecksEliminated = Long.parseLong(facts[COUNTERS + 1]);
+        fragment.callsDevirtualized = Long.parseLong(facts[COUNTERS + 2]);
+        fragment.load = Boolean.parseBoolean(facts[COUNTERS + 3]);
+        fragment.text = renumber(new String(entry.code, StandardCharsets.UTF_8), counters, 1);
+        hits.incrementAndGet();
+        return fragment;
+    }
+
+    void store(String key, CharSequence text, int[] counters, Fragment facts) {
+        StringBuilder header = new StringBuilder();
+        for (int labels : facts.labels)
+            header.append(labels).append(' ');
+        header.append(facts.registers).append(' ').append(facts.boundsChecksEliminated).append(' ').append(facts.callsDevirtualized)
+              .append(' ').append(facts.load);
+        try {
+            cache.store(key, header.toString().getBytes(StandardCharsets.UTF_8),
+                        renumber(text.toString(), counters, -1).getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException ex) {
+            // the cache is only an optimization
+        }
+    }
+
+    // adds (sign 1) or subtracts (sign -1) the counters from the label numbers
+    static String renumber(String text, int[] counters, int sign) {
+        for (int counter = 0; counter < COUNTERS; counter++) {
+            if (counters[counter] == 0)
+                continue;
+            Matcher matcher = LABEL_PATTERNS[counter].matcher(text);
+            StringBuilder renumbered = new StringBuilder(text.length());
+            while (matcher.find()) {
+                int number = Integer.parseInt(matcher.group(3)) + sign * counters[counter];
+                matcher.appendReplacement(renumbered, Matcher.quoteReplacement(matcher.group(1) + matcher.group(2) + number));
+            }
+            matcher.appendTail(renumbered);
+            text = renumbered.toString();
+        }
+        return text;
+    }
+
+    private static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest(text.getBytes(StandardCharsets.UTF_8)))
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public void visit(ClassDeclaration n) throws Exception {
+        currentClass = n.f1.f0.toString();
+        n.f4.accept(this);
+    }
+
+    public void visit(ClassExtendsDeclaration n) throws Exception {
+        currentClass = n.f1.f0.toString();
+        n.f6.accept(this);
+    }
+
+    public void visit(MainClass n) throws Exception {
+    }
+
+    public void visit(MethodDeclaration n) throws Exception {
+        String name = n.f2.f0.toString();
+        tokens = new StringBuilder();
+        currentCalls = new HashSet<String>();
+        currentIdentifiers = new HashSet<String>();
+        super.visit(n);
+
+        String hash = sha256(tokens.toString());
+        methods.put(currentClass + "." + name, hash);
+        calls.put(currentClass + "." + name, currentCalls);
+        identifiers.put(currentClass + "." + name, currentIdentifiers);
+        identifiersByName.computeIfAbsent(name, k -> new HashSet<String>()).addAll(currentIdentifiers);
+        if (!methodsByName.containsKey(name)) {
+            methodsByName.put(name, new ArrayList<String>());
+            callGraph.put(name, new HashSet<String>());
+        }
+        methodsByName.get(name).add(currentClass + "." + name + " " + hash);
+        callGraph.get(name).addAll(currentCalls);
+    }
+
+    public void visit(MessageSend n) throws Exception {
+        currentCalls.add(n.f2.f0.toString());
+        super.visit(n);
+    }
+
+    public void visit(Identifier n) throws Exception {
+        currentIdentifiers.add(n.f0.toString());
+        super.visit(n);
+    }
+
+    public void visit(NodeToken n) throws Exception {
+        tokens.append(n.tokenImage).append(' ');
+    }
+}
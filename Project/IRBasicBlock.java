@@ -0,0 +1,29 @@
+import java.util.ArrayList;
+
+/*
+ * Basic block of an IRFunction. The first block of a function may have no label.
+ */
+public class IRBasicBlock {
+    IRFunction function;
+    // null for an unlabeled entry block
+    String label;
+    // empty lines printed after the label
+    int blankLines;
+    ArrayList<IRInstruction> instructions;
+
+    IRBasicBlock(IRFunction function, String label) {
+        this.function = function;
+        this.label = label;
+        this.instructions = new ArrayList<IRInstruction>();
+    }
+
+    void add(IRInstruction instruction) {
+        instruction.block = this;
+        instructions.add(instruction);
+    }
+
+    void add(int index, IRInstruction instruction) {
+        instruction.block = this;
+        instructions.add(index, instruction);
+    }
+}
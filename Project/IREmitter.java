@@ -0,0 +1,382 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/*
+ * What the code generator emits its IR through. An instruction is started with define
+ * or instruction, given its operands with text (literal parts: types, constants,
+ * labels, globals) and value (registers, arguments and constants the instruction
+ * uses), and finished with end:
+ *
+ *     emit.define(register, "i32", "add").text("i32 ").value(left).text(", ").value(right).end();
+ *
+ * Without optimization passes the text of the instruction is appended straight to a
+ * StringBuilder, as the code generator always wrote it, so no object is built for it.
+ * With passes the emitter builds an IRModule instead: functions, basic blocks and
+ * IRInstructions with the IR type of their result, each register operand linked to the
+ * instruction or argument that defines it, also when that is emitted later (the phis
+ * of a loop header). IRModule.print then writes the same text as the first way.
+ */
+class IREmitter {
+    // text, or null when building the IR
+    private StringBuilder text;
+    private StringBuilder out;
+    // text inserted at a mark, e.g. the phis of a loop header
+    private StringBuilder inserted;
+    // a define or instruction was started and nothing follows its opcode yet
+    private boolean afterOpcode;
+
+    private IRModule module;
+    // text between functions, not yet added to the module
+    private StringBuilder moduleText;
+    private IRFunction function;
+    private StringBuilder header;
+    private IRBasicBlock block;
+    // index in block the next instruction is inserted at, or -1 to append it
+    private int insertIndex;
+    private IRBasicBlock appendBlock;
+    private HashMap<String, IRValue> values;
+    // values used before the instruction that defines them was emitted
+    private HashMap<String, IRValue> forward;
+    private IRInstruction instruction;
+    private ArrayList<String> pieces;
+    private ArrayList<IRValue> operands;
+    private StringBuilder piece;
+
+    // emits the text into out
+    IREmitter(StringBuilder out) {
+        this.text = out;
+        this.out = out;
+        this.inserted = null;
+    }
+
+    // builds an IRModule
+    IREmitter() {
+        this.text = null;
+        this.module = new IRModule();
+        this.moduleText = new StringBuilder();
+        this.header = new StringBuilder();
+        this.insertIndex = -1;
+        this.pieces = new ArrayList<String>();
+        this.operands = new ArrayList<IRValue>();
+        this.piece = new StringBuilder();
+    }
+
+    boolean buildsIR() {
+        return text == null;
+    }
+
+    // the module built so far, with the text after its last function; the next starts empty
+    IRModule take() {
+        addModuleText();
+        IRModule built = module;
+        module = new IRModule();
+        return built;
+    }
+
+    private void addModuleText() {
+        if (moduleText.length() > 0) {
+            module.items.add(moduleText.toString());
+            moduleText.setLength(0);
+        }
+    }
+
+    /*
+     * Functions. Between them, text is kept as it is (declarations, globals, empty lines).
+     */
+
+    // define returnType @name(
+    IREmitter beginFunction(String returnType, String name) {
+        return beginFunction(returnType, null, name);
+    }
+
+    // define returnType @className.name(
+    IREmitter beginFunction(String returnType, String className, String name) {
+        StringBuilder out = text != null ? this.out : header;
+        if (text == null) {
+            addModuleText();
+            function = new IRFunction(null);
+            values = new HashMap<String, IRValue>();
+            forward = new HashMap<String, IRValue>();
+            block = null;
+            header.setLength(0);
+        }
+        out.append("define ").append(returnType).append(" @");
+        if (className != null)
+            out.append(className).append('.');
+        out.append(name).append('(');
+        return this;
+    }
+
+    // an argument of the function, type prefix name, e.g. i32 %.x
+    IREmitter argument(String type, String prefix, String name) {
+        if (text != null) {
+            if (out.charAt(out.length() - 1) != '(')
+                out.append(", ");
+            out.append(type).append(' ').append(prefix).append(name);
+            return this;
+        }
+        if (header.charAt(header.length() - 1) != '(')
+            header.append(", ");
+        header.append(type).append(' ').append(prefix).append(name);
+        IRValue argument = new IRValue(prefix + name, type);
+        function.arguments.add(argument);
+        values.put(argument.name, argument);
+        return this;
+    }
+
+    // ) {
+    void beginBody() {
+        if (text != null) {
+            out.append(") {\n");
+            return;
+        }
+        function.header = header.append(") {").toString();
+    }
+
+    void endFunction() {
+        if (text != null) {
+            out.append("}\n");
+            return;
+        }
+        module.items.add(function);
+        function = null;
+        values = null;
+        forward = null;
+        block = null;
+    }
+
+    /*
+     * Basic blocks. The first block of a function may have no label.
+     */
+
+    void label(String label) {
+        if (text != null) {
+            out.append(label).append(":\n");
+            return;
+        }
+        block = new IRBasicBlock(function, label);
+        function.blocks.add(block);
+    }
+
+    // an empty line after what was emitted last
+    void blankLine() {
+        if (text != null || function == null) {
+            append('\n');
+            return;
+        }
+        if (block == null)
+            function.blankLines++;
+        else if (!block.instructions.isEmpty())
+            block.instructions.get(block.instructions.size() - 1).blankLines++;
+        else if (block.label != null)
+            block.blankLines++;
+        else
+            function.blankLines++;
+    }
+
+    /*
+     * Instructions.
+     */
+
+    // an instruction with the result %_register of the given IR type
+    IREmitter define(int register, String type, String opcode) {
+        if (text != null) {
+            out.append("\t%_").append(register).append(" = ").append(opcode);
+            afterOpcode = true;
+            return this;
+        }
+        return start(CodeGeneratorVisitor.registerName(register), type, opcode);
+    }
+
+    // an instruction with a named result, prefix name, e.g. %x
+    IREmitter define(String prefix, String name, String type, String opcode) {
+        if (text != null) {
+            out.append('\t').append(prefix).append(name).append(" = ").append(opcode);
+            afterOpcode = true;
+            return this;
+        }
+        return start(prefix + name, type, opcode);
+    }
+
+    // an instruction without a result
+    IREmitter instruction(String opcode) {
+        if (text != null) {
+            out.append('\t').append(opcode);
+            afterOpcode = true;
+            return this;
+        }
+        return start(null, null, opcode);
+    }
+
+    private IREmitter start(String result, String type, String opcode) {
+        if (function == null)
+            throw new IllegalStateException("instruction outside a function");
+        instruction = new IRInstruction(result, type, opcode);
+        return this;
+    }
+
+    IREmitter text(String part) {
+        return append(part);
+    }
+
+    IREmitter text(char part) {
+        return append(part);
+    }
+
+    IREmitter text(int part) {
+        if (text != null) {
+            operandStart();
+            out.append(part);
+        }
+        else
+            target().append(part);
+        return this;
+    }
+
+    // the value a register or constant holds, e.g. %_3, %.x, %this or 5
+    IREmitter value(String value) {
+        if (text != null || value.isEmpty() || value.charAt(0) != '%')
+            return append(value);
+        return use(value);
+    }
+
+    IREmitter value(int register) {
+        if (text != null) {
+            operandStart();
+            out.append("%_").append(register);
+            return this;
+        }
+        return use(CodeGeneratorVisitor.registerName(register));
+    }
+
+    // the value in the register prefix name, e.g. %.x
+    IREmitter value(String prefix, String name) {
+        if (text != null) {
+            operandStart();
+            out.append(prefix).append(name);
+            return this;
+        }
+        return use(prefix + name);
+    }
+
+    void end() {
+        if (text != null) {
+            out.append('\n');
+            afterOpcode = false;
+            return;
+        }
+        pieces.add(piece.toString());
+        piece.setLength(0);
+        instruction.pieces = pieces.toArray(new String[0]);
+        instruction.operands = operands.toArray(new IRValue[0]);
+        pieces.clear();
+        operands.clear();
+        for (IRValue operand : instruction.operands)
+            operand.users.add(instruction);
+
+        if (block == null) {
+            block = new IRBasicBlock(function, null);
+            function.blocks.add(block);
+        }
+        if (insertIndex < 0)
+            block.add(instruction);
+        else
+            block.add(insertIndex++, instruction);
+
+        if (instruction.hasResult()) {
+            IRValue earlier = forward.remove(instruction.name);
+            if (earlier != null)
+                earlier.replaceAllUsesWith(instruction);
+            values.put(instruction.name, instruction);
+        }
+        instruction = null;
+    }
+
+    private void operandStart() {
+        if (afterOpcode) {
+            out.append(' ');
+            afterOpcode = false;
+        }
+    }
+
+    private IREmitter append(String part) {
+        if (text != null) {
+            operandStart();
+            out.append(part);
+        }
+        else
+            target().append(part);
+        return this;
+    }
+
+    private IREmitter append(char part) {
+        if (text != null) {
+            operandStart();
+            out.append(part);
+        }
+        else
+            target().append(part);
+        return this;
+    }
+
+    // where literal text goes: the current piece of the instruction, or the module text
+    private StringBuilder target() {
+        if (instruction != null)
+            return piece;
+        if (function != null)
+            throw new IllegalStateException("text inside a function outside an instruction");
+        return moduleText;
+    }
+
+    private IREmitter use(String name) {
+        IRValue value = values.get(name);
+        if (value == null) {
+            value = forward.get(name);
+            if (value == null) {
+                value = new IRValue(name, null);
+                forward.put(name, value);
+            }
+        }
+        pieces.add(piece.toString());
+        piece.setLength(0);
+        operands.add(value);
+        return this;
+    }
+
+    /*
+     * Insertion at a mark, for what can only be emitted once the code after it is known:
+     * the phis at the start of a loop header, emitted after the body of the loop.
+     */
+
+    // the start of the block begun last
+    int mark() {
+        if (text != null)
+            return out.length();
+        return function.blocks.size() - 1;
+    }
+
+    // emits at the mark until endInsert
+    void beginInsert(int mark) {
+        if (text != null) {
+            if (inserted == null)
+                inserted = new StringBuilder();
+            inserted.setLength(0);
+            out = inserted;
+            return;
+        }
+        appendBlock = block;
+        block = function.blocks.get(mark);
+        insertIndex = 0;
+    }
+
+    void endInsert(int mark) {
+        if (text != null) {
+            out = text;
+            out.insert(mark, inserted);
+            return;
+        }
+        block = appendBlock;
+        appendBlock = null;
+        insertIndex = -1;
+    }
+}
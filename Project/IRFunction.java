@@ -0,0 +1,31 @@
+import java.util.ArrayList;
+
+/*
+ * Function of an IRModule: its define line, arguments and basic blocks.
+ */
+public class IRFunction {
+    // e.g. define i32 @A.get(i8* %this, i32 %.x) {
+    String header;
+    // empty lines printed after the define line
+    int blankLines;
+    ArrayList<IRValue> arguments;
+    ArrayList<IRBasicBlock> blocks;
+
+    IRFunction(String header) {
+        this.header = header;
+        this.arguments = new ArrayList<IRValue>();
+        this.blocks = new ArrayList<IRBasicBlock>();
+    }
+
+    String name() {
+        int start = header.indexOf('@');
+        return header.substring(start + 1, header.indexOf('(', start));
+    }
+
+    int instructionCount() {
+        int count = 0;
+        for (IRBasicBlock block : blocks)
+            count += block.instructions.size();
+        return count;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * One instruction of a basic block, as the code generator emitted it through the
+ * IREmitter. The text after the opcode is kept as literal pieces around the operands,
+ * the registers and arguments it uses, so that printing it gives the text the code
+ * generator would have written while the operands can still be replaced:
+ *
+ *     %_5 = add i32 %_3, 1    ->    type i32    pieces "i32 ", ", 1"    operands %_3
+ *
+ * An instruction with a result is itself the value of the result, of the IR type of
+ * the result.
+ */
+public class IRInstruction extends IRValue {
+    IRBasicBlock block;
+    String opcode;
+    String[] pieces;
+    IRValue[] operands;
+    // empty lines printed after the instruction
+    int blankLines;
+
+    IRInstruction(String result, String type, String opcode) {
+        super(result, type);
+        this.opcode = opcode;
+    }
+
+    boolean hasResult() {
+        return name != null;
+    }
+
+    void setOperand(int index, IRValue value) {
+        IRValue old = operands[index];
+        operands[index] = value;
+        old.users.remove(this);
+        value.users.add(this);
+    }
+
+    // removes the instruction from its block and from the users of its operands
+    void erase() {
+        for (IRValue operand : operands)
+            operand.users.remove(this);
+        int index = block.instructions.indexOf(this);
+        // the empty lines after it stay where they were
+        if (index > 0)
+            block.instructions.get(index - 1).blankLines += blankLines;
+        else if (block.label != null)
+            block.blankLines += blankLines;
+        else
+            block.function.blankLines += blankLines;
+        block.instructions.remove(index);
+        block = null;
+    }
+
+    // the text after the opcode, with the current names of the operands
+    String operandText() {
+        StringBuilder text = new StringBuilder(pieces[0]);
+        for (int i = 0; i < operands.length; i++)
+            text.append(operands[i].name).append(pieces[i + 1]);
+        return text.toString();
+    }
+
+    void print(StringBuilder out) {
+        out.append('\t');
+        if (hasResult())
+            out.append(name).append(" = ");
+        out.append(opcode);
+        if (pieces.length > 1 || !pieces[0].isEmpty())
+            out.append(' ').append(pieces[0]);
+        for (int i = 0; i < operands.length; i++)
+            out.append(operands[i].name).append(pieces[i + 1]);
+    }
+}
@@ -0,0 +1,56 @@
+import java.util.ArrayList;
+
+/*
+ * In memory IR of a piece of the output: functions, and the text between them
+ * (declarations, globals, empty lines). The code generator builds it through an
+ * IREmitter, the passes of the PassManager run on it, and print writes it as the text
+ * the code generator writes when no pass runs.
+ */
+public class IRModule {
+    // String text and IRFunctions, in output order
+    ArrayList<Object> items;
+
+    IRModule() {
+        this.items = new ArrayList<Object>();
+    }
+
+    ArrayList<IRFunction> functions() {
+        ArrayList<IRFunction> functions = new ArrayList<IRFunction>();
+        for (Object item : items) {
+            if (item instanceof IRFunction)
+                functions.add((IRFunction)item);
+        }
+        return functions;
+    }
+
+    void print(StringBuilder out) {
+        for (Object item : items) {
+            if (item instanceof IRFunction)
+                print((IRFunction)item, out);
+            else
+                out.append((String)item);
+        }
+    }
+
+    private static void print(IRFunction function, StringBuilder out) {
+        out.append(function.header).append('\n');
+        blankLines(function.blankLines, out);
+        for (IRBasicBlock block : function.blocks) {
+            if (block.label != null) {
+                out.append(block.label).append(":\n");
+                blankLines(block.blankLines, out);
+            }
+            for (IRInstruction instruction : block.instructions) {
+                instruction.print(out);
+                out.append('\n');
+                blankLines(instruction.blankLines, out);
+            }
+        }
+        out.append("}\n");
+    }
+
+    private static void blankLines(int count, StringBuilder out) {
+        for (int i = 0; i < count; i++)
+            out.append('\n');
+    }
+}
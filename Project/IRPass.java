@@ -0,0 +1,9 @@
+/*
+ * Optimization pass over one function of the IR, run by the PassManager.
+ */
+public interface IRPass {
+    String name();
+
+    // returns true if the function was changed
+    boolean run(IRFunction function);
+}
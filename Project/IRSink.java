@@ -0,0 +1,15 @@
+import java.io.IOException;
+
+/*
+ * Destination of the generated LLVM IR. The code generator hands over the module
+ * piece by piece (header, then each method as soon as it is complete), so a sink
+ * never needs to hold the whole output.
+ */
+public interface IRSink {
+    void write(CharSequence text) throws IOException;
+
+    // number of bytes written so far
+    long size();
+
+    void close() throws IOException;
+}
@@ -0,0 +1,33 @@
+import java.util.ArrayList;
+
+/*
+ * Value that instructions can use: the result of an instruction or an argument of the
+ * function. Every value knows the instructions that use it (its def-use chain).
+ */
+public class IRValue {
+    // e.g. %_3, %this, %.x
+    String name;
+    // IR type, e.g. i32, i8* or i32 (i8*,i32)*, null for a value never defined
+    String type;
+    ArrayList<IRInstruction> users;
+
+    IRValue(String name, String type) {
+        this.name = name;
+        this.type = type;
+        this.users = new ArrayList<IRInstruction>();
+    }
+
+    boolean isUsed() {
+        return !users.isEmpty();
+    }
+
+    // makes every user of this value use the other value instead
+    void replaceAllUsesWith(IRValue other) {
+        for (IRInstruction user : new ArrayList<IRInstruction>(users)) {
+            for (int i = 0; i < user.operands.length; i++) {
+                if (user.operands[i] == this)
+                    user.setOperand(i, other);
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * JFR event for a call site considered for inlining with -finline: the cost of the
+ * callee, the budget it was compared with and what was decided.
+ */
+@Name("minijava.InlineDecision")
+@Label("Inline Decision")
+@Category("MiniJava Compiler")
+@Description("Whether a call was inlined, and why")
+public class InlineDecisionEvent extends jdk.jfr.Event {
+    @Label("File")
+    String file;
+
+    @Label("Caller")
+    String caller;
+
+    @Label("Callee")
+    String callee;
+
+    @Label("Cost")
+    int cost;
+
+    @Label("Budget")
+    int budget;
+
+    @Label("Inlined")
+    boolean inlined;
+
+    @Label("Reason")
+    String reason;
+}
@@ -0,0 +1,141 @@
+import syntaxtree.*;
+import visitor.DepthFirstVisitor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/*
+ * Inlining decisions for -finline. Collects the declaration, the size and the called
+ * method names of every method of the program, so that a call with a single target
+ * (see ClassHierarchy.getSingleTarget) can be replaced by the body of the method when
+ * the body is small and the method cannot call itself. The size of a method, its cost,
+ * is the number of statements and expressions in its body and return expression.
+ */
+class Inliner extends DepthFirstVisitor {
+    static final int BUDGET = 16;
+
+    static final String INLINED = "inlined";
+    static final String TOO_LARGE = "too large";
+    static final String RECURSIVE = "recursive";
+
+    static class Decision {
+        String caller;
+        String callee;
+        int cost;
+        boolean inlined;
+        String reason;
+    }
+
+    // Class.method -> declaration and size
+    private final HashMap<String, MethodDeclaration> declarations;
+    private final HashMap<String, Integer> sizes;
+    // method name -> names of the methods called by any method with that name
+    private final HashMap<String, HashSet<String>> callGraph;
+    private final HashMap<String, Boolean> recursive;
+
+    private String currentClass;
+    private HashSet<String> currentCalls;
+    private int currentSize;
+
+    private Inliner() {
+        declarations = new HashMap<String, MethodDeclaration>();
+        sizes = new HashMap<String, Integer>();
+        callGraph = new HashMap<String, HashSet<String>>();
+        recursive = new HashMap<String, Boolean>();
+    }
+
+    static Inliner of(Goal root) throws Exception {
+        Inliner inliner = new Inliner();
+        root.accept(inliner);
+        return inliner;
+    }
+
+    MethodDeclaration declaration(ClassType classType, MethodType method) {
+        return declarations.get(classType.name + "." + method.name);
+    }
+
+    Decision decide(String caller, ClassType classType, MethodType method) {
+        String callee = classType.name + "." + method.name;
+        Decision decision = new Decision();
+        decision.caller = caller;
+        decision.callee = callee;
+        decision.cost = sizes.get(callee);
+        if (isRecursive(method.name))
+            decision.reason = RECURSIVE;
+        else if (decision.cost > BUDGET)
+            decision.reason = TOO_LARGE;
+        else {
+            decision.inlined = true;
+            decision.reason = INLINED;
+        }
+        return decision;
+    }
+
+    /*
+     * Calls are matched by method name only, as the class of the receiver of a call is
+     * not known here: a method is taken to be recursive if some chain of calls starting
+     * from any method with its name reaches that name again. Methods generated in
+     * parallel share the memo.
+     */
+    private synchronized boolean isRecursive(String name) {
+        Boolean result = recursive.get(name);
+        if (result == null) {
+            HashSet<String> visited = new HashSet<String>();
+            ArrayList<String> pending = new ArrayList<String>(callGraph.get(name));
+            result = false;
+            while (!pending.isEmpty() && !result) {
+                String called = pending.remove(pending.size() - 1);
+                if (called.equals(name))
+                    result = true;
+                else if (visited.add(called) && callGraph.containsKey(called))
+                    pending.addAll(callGraph.get(called));
+            }
+            recursive.put(name, result);
+        }
+        return result;
+    }
+
+    public void visit(MainClass n) throws Exception {
+        // main cannot be called, and the calls it makes do not matter for recursion
+    }
+
+    public void visit(ClassDeclaration n) throws Exception {
+        currentClass = n.f1.f0.toString();
+        n.f4.accept(this);
+    }
+
+    public void visit(ClassExtendsDeclaration n) throws Exception {
+        currentClass = n.f1.f0.toString();
+        n.f6.accept(this);
+    }
+
+    public void visit(MethodDeclaration n) throws Exception {
+        String name = n.f2.f0.toString();
+        currentCalls = new HashSet<String>();
+        currentSize = 0;
+        n.f8.accept(this);
+        n.f10.accept(this);
+
+        String key = currentClass + "." + name;
+        declarations.put(key, n);
+        sizes.put(key, currentSize);
+        if (!callGraph.containsKey(name))
+            callGraph.put(name, new HashSet<String>());
+        callGraph.get(name).addAll(currentCalls);
+    }
+
+    public void visit(Statement n) throws Exception {
+        currentSize++;
+        super.visit(n);
+    }
+
+    public void visit(Expression n) throws Exception {
+        currentSize++;
+        super.visit(n);
+    }
+
+    public void visit(MessageSend n) throws Exception {
+        currentCalls.add(n.f2.f0.toString());
+        super.visit(n);
+    }
+}
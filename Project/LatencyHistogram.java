@@ -0,0 +1,65 @@
+import java.io.PrintStream;
+import java.util.Locale;
+
+/*
+ * Histogram of request latencies with power of two buckets: bucket i counts the
+ * latencies from 2^i up to 2^(i+1) microseconds. Percentiles are reported as the upper
+ * end of the bucket they fall in, so they are exact to within a factor of two.
+ */
+class LatencyHistogram {
+    private final long[] buckets = new long[64];
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    synchronized void record(long nanos) {
+        long micros = Math.max(1, nanos / 1000);
+        buckets[63 - Long.numberOfLeadingZeros(micros)]++;
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    synchronized long count() {
+        return count;
+    }
+
+    // upper end in microseconds of the bucket holding the given fraction of the requests
+    synchronized long percentile(double fraction) {
+        long rank = (long)Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0)
+                return 1L << (i + 1);
+        }
+        return 0;
+    }
+
+    synchronized void print(PrintStream out) {
+        out.println(String.format(Locale.ROOT, "requests: %d, mean: %.3f ms, max: %.3f ms", count,
+            count == 0 ? 0.0 : totalNanos / 1e6 / count, maxNanos / 1e6));
+        if (count == 0)
+            return;
+        out.println(String.format(Locale.ROOT, "p50 <= %s, p90 <= %s, p99 <= %s",
+            format(percentile(0.5)), format(percentile(0.9)), format(percentile(0.99))));
+        long largest = 0;
+        for (long bucket : buckets)
+            largest = Math.max(largest, bucket);
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] == 0)
+                continue;
+            int bar = (int)Math.max(1, buckets[i] * 40 / largest);
+            out.println(String.format(Locale.ROOT, "%10s - %-10s %8d %s", format(1L << i), format(1L << (i + 1)),
+                buckets[i], "#".repeat(bar)));
+        }
+    }
+
+    private static String format(long micros) {
+        if (micros >= 1000000)
+            return String.format(Locale.ROOT, "%.3g s", micros / 1e6);
+        if (micros >= 1000)
+            return String.format(Locale.ROOT, "%.3g ms", micros / 1e3);
+        return micros + " us";
+    }
+}
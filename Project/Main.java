@@ -1,55 +1,302 @@
 import syntaxtree.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class Main {
     public static void main(String[] args) throws Exception {
-        if (args.length == 0) {
-            System.err.println("Usage: java Main <inputFile>");
-            System.exit(1);
+        int status = run(args, System.out, System.err, null);
+        if (status != 0)
+            System.exit(status);
+    }
+
+    /*
+     * Runs the compiler with the command line arguments, printing its messages to out and
+     * err. File names are relative to directory, or to the current directory if it is
+     * null, and the .ll files are written there. Returns the exit status.
+     */
+    static int run(String[] args, PrintStream out, PrintStream err, String directory) throws Exception {
+        CompilerOptions options = null;
+        try {
+            options = CompilerOptions.parse(args);
+        }
+        catch (IllegalArgumentException ex) {
+            err.println(ex.getMessage());
+        }
+        if (options == null || options.files.isEmpty()) {
+            err.println("Usage: java Main [-j N] [-O0|-O1|-O2] [-fmem2reg] [-ffold] [-fbce] [-fdevirt] [-finline] [-fpack] [--cache[=dir]] [--cache-size=MB] [--cache-age=days] [--stats[=file]] <inputFile> ...");
+            return 1;
         }
+        options.directory = directory;
+        CompileCache cache = null;
+        if (options.cacheDirectory != null)
+            cache = new CompileCache(options.resolve(options.cacheDirectory), options.cacheMaxBytes, options.cacheMaxAgeDays * 24L * 60 * 60 * 1000);
 
-        FileInputStream fis = null;
-        for (int i = 0; i < args.length; i++) {
-            try {
-                fis = new FileInputStream(args[i]);
-                MiniJavaParser parser = new MiniJavaParser(fis);
-    
-                Goal root = parser.Goal();
-    
-                System.err.println("File name: \"" + args[i] + "\". Program parsed successfully.");
-         
-                SymbolTableVisitor symbolTableVisitor = new SymbolTableVisitor();
-                root.accept(symbolTableVisitor, null);
+        CompilerStats[] stats = new CompilerStats[options.files.size()];
+        for (int i = 0; i < stats.length; i++)
+            stats[i] = new CompilerStats(options.files.get(i), options.statsFile != null);
+
+        if (options.jobs > 1 && options.files.size() > 1)
+            compileParallel(options, cache, stats, out, err);
+        else {
+            for (int i = 0; i < stats.length; i++)
+                compileFile(options.files.get(i), options, cache, out, err, stats[i]);
+        }
+        if (cache != null)
+            cache.evict();
 
-                TypeCheckingVisitor typeCheckingVisitor = new TypeCheckingVisitor(symbolTableVisitor.symbolTable);
-                root.accept(typeCheckingVisitor, null);
+        if (options.statsFile != null)
+            CompilerStats.writeReport(options.resolve(options.statsFile), stats);
+        return 0;
+    }
 
-                symbolTableVisitor.symbolTable.calculateOffsets();
+    /*
+     * Compiles the files on a work-stealing pool, largest files first so that a big file
+     * picked up late does not become the tail of the build. Each file writes its
+     * diagnostics to its own buffers, which are printed in argument order.
+     */
+    private static void compileParallel(CompilerOptions options, CompileCache cache, CompilerStats[] stats, PrintStream out, PrintStream err) throws Exception {
+        int fileCount = options.files.size();
+        ByteArrayOutputStream[] outBuffers = new ByteArrayOutputStream[fileCount];
+        ByteArrayOutputStream[] errBuffers = new ByteArrayOutputStream[fileCount];
+        Future<?>[] results = new Future<?>[fileCount];
 
-                CodeGeneratorVisitor codeGenVisitor = new CodeGeneratorVisitor(symbolTableVisitor.symbolTable);
-                root.accept(codeGenVisitor, null);
+        Integer[] order = new Integer[fileCount];
+        long[] sizes = new long[fileCount];
+        for (int i = 0; i < fileCount; i++) {
+            order[i] = i;
+            sizes[i] = new File(options.resolve(options.files.get(i))).length();
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(sizes[b], sizes[a]));
 
-                codeGenVisitor.writeBufferToFile(args[i]);
+        ForkJoinPool pool = new ForkJoinPool(options.jobs);
+        try {
+            for (int i : order) {
+                String fileName = options.files.get(i);
+                CompilerStats fileStats = stats[i];
+                ByteArrayOutputStream outBuffer = outBuffers[i] = new ByteArrayOutputStream();
+                ByteArrayOutputStream errBuffer = errBuffers[i] = new ByteArrayOutputStream();
+                results[i] = pool.submit(() -> {
+                    compileFile(fileName, options, cache, new PrintStream(outBuffer, true), new PrintStream(errBuffer, true), fileStats);
+                    return null;
+                });
             }
-            catch (ParseException ex) {
-                System.out.println(ex.getMessage());
+
+            for (int i = 0; i < fileCount; i++) {
+                try {
+                    results[i].get();
+                }
+                finally {
+                    errBuffers[i].writeTo(err);
+                    outBuffers[i].writeTo(out);
+                }
             }
-            catch (FileNotFoundException ex) {
-                System.err.println(ex.getMessage());
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception)
+                throw (Exception)ex.getCause();
+            throw ex;
+        }
+        finally {
+            out.flush();
+            err.flush();
+            pool.shutdownNow();
+        }
+    }
+
+    // file.java -> file.ll, in the given directory or the current one if it is null
+    static String outputFileName(String fileName, String directory) {
+        String name = new File(fileName).getName();
+        name = name.substring(0, name.lastIndexOf('.')) + ".ll";
+        return directory == null ? name : new File(directory, name).getPath();
+    }
+
+    /*
+     * With a cache, a file whose source, compiler and options match a stored entry is not
+     * compiled: the .ll and what the compilation printed are copied from the entry.
+     * Otherwise the file is compiled and, if that succeeds, stored.
+     */
+    static void compileFile(String fileName, CompilerOptions options, CompileCache cache, PrintStream out, PrintStream err, CompilerStats stats) throws Exception {
+        if (cache == null) {
+            compile(fileName, null, options, null, out, err, stats);
+            return;
+        }
+
+        stats.begin(CompilerStats.CACHE);
+        byte[] source;
+        try (FileInputStream in = new FileInputStream(options.resolve(fileName))) {
+            source = in.readAllBytes();
+        }
+        catch (IOException ex) {
+            stats.end();
+            compile(fileName, null, options, cache, out, err, stats);
+            return;
+        }
+        String key = cache.key(source, options);
+        String outputFile = outputFileName(fileName, options.directory);
+        CompileCache.Entry entry = cache.lookup(key);
+        if (entry != null) {
+            boolean succeeded = false;
+            try {
+                Files.write(Paths.get(outputFile), entry.code);
+                err.println("File name: \"" + fileName + "\". Program parsed successfully.");
+                out.write(entry.output);
+                out.flush();
+                stats.cacheHit = true;
+                stats.outputBytes = entry.code.length;
+                succeeded = true;
             }
-            catch (MyException ex) {
-                System.err.println(ex.message);
+            catch (IOException ex) {
+                err.println(ex.getMessage());
             }
             finally {
-                try {
-                    if (fis != null) fis.close();
-                }
-                catch (IOException ex) {
-                    System.err.println(ex.getMessage());
-                }
+                stats.finish(succeeded);
             }
+            return;
+        }
+        stats.end();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        boolean succeeded = compile(fileName, source, options, cache, new PrintStream(output, true), err, stats);
+        output.writeTo(out);
+        out.flush();
+        if (succeeded) {
+            try {
+                cache.store(key, output.toByteArray(), Files.readAllBytes(Paths.get(outputFile)));
+            }
+            catch (IOException ex) {
+                // the cache is only an optimization, the compilation itself succeeded
+            }
+        }
+    }
+
+    /*
+     * Compiles the file, or the given source if it is not null, reusing the IR of the
+     * methods found in the cache if there is one. Returns true on success.
+     *
+     * The file is read, or mapped if it is large, and tokenized by the SourceLexer; a
+     * source it cannot handle is read again through the generated token manager.
+     */
+    static boolean compile(String fileName, byte[] source, CompilerOptions options, CompileCache cache, PrintStream out, PrintStream err, CompilerStats stats) throws Exception {
+        InputStream fis = null;
+        boolean succeeded = false;
+        try {
+            stats.begin(CompilerStats.PARSE);
+            ByteBuffer bytes = source != null ? ByteBuffer.wrap(source) : SourceLexer.read(options.resolve(fileName));
+            SourceLexer lexer = SourceLexer.tokenize(bytes);
+            MiniJavaParser parser;
+            if (lexer != null)
+                parser = new MiniJavaParser(lexer);
+            else {
+                fis = source != null ? new ByteArrayInputStream(source) : new FileInputStream(options.resolve(fileName));
+                parser = new MiniJavaParser(fis);
+            }
+
+            Goal root = parser.Goal();
+            stats.end();
+            stats.countSyntaxTree(root);
+
+            err.println("File name: \"" + fileName + "\". Program parsed successfully.");
+
+            stats.begin(CompilerStats.SYMBOL_TABLE);
+            SymbolTableVisitor symbolTableVisitor = new SymbolTableVisitor();
+            root.accept(symbolTableVisitor, null);
+            stats.end();
+            stats.countSymbols(symbolTableVisitor.symbolTable);
+
+            generate(root, symbolTableVisitor.symbolTable, outputFileName(fileName, options.directory), options, cache, out, stats);
+            succeeded = true;
+        }
+        catch (ParseException ex) {
+            out.println(ex.getMessage());
+        }
+        catch (FileNotFoundException ex) {
+            err.println(ex.getMessage());
+        }
+        catch (MyException ex) {
+            err.println(ex.message);
+        }
+        catch (IOException ex) {
+            err.println(ex.getMessage());
+        }
+        finally {
+            stats.finish(succeeded);
+            try {
+                if (fis != null) fis.close();
+            }
+            catch (IOException ex) {
+                err.println(ex.getMessage());
+            }
+        }
+        return succeeded;
+    }
+
+    /*
+     * Type checks and generates the methods in one traversal of the tree, see the checker
+     * of the CodeGeneratorVisitor. Until the whole file has checked, the listing of the
+     * offsets is kept in memory and the IR goes to outputFile.part, so a file with a type
+     * error prints the error alone and leaves no .ll behind, as when the type checker
+     * ran before the other phases. If offsets or code generation fail on a program that
+     * does not type check, the type error is what gets reported.
+     */
+    private static void generate(Goal root, SymbolTable symbolTable, String outputFile, CompilerOptions options, CompileCache cache, PrintStream out, CompilerStats stats) throws Exception {
+        ByteArrayOutputStream offsets = new ByteArrayOutputStream();
+        Path partialFile = Paths.get(outputFile + ".part");
+        IRSink sink = null;
+        // type checked, so the offsets are printed, and generated, so the output is kept
+        boolean checked = false;
+        boolean generated = false;
+        try {
+            stats.begin(CompilerStats.OFFSETS);
+            symbolTable.calculateOffsets(options.packFields);
+            symbolTable.printOffsets(new PrintStream(offsets, true));
+            stats.end();
+            stats.countLayout(symbolTable);
+
+            stats.begin(CompilerStats.CHECK_AND_GEN);
+            sink = new FileChannelSink(partialFile.toString());
+            CodeGeneratorVisitor codeGenVisitor = new CodeGeneratorVisitor(symbolTable, sink, options);
+            codeGenVisitor.checker = new TypeCheckingVisitor(symbolTable);
+            if (cache != null)
+                codeGenVisitor.fragments = new FragmentCache(cache, symbolTable, root, options);
+            root.accept(codeGenVisitor, null);
+            stats.addWorkerBytes(codeGenVisitor.workerAllocatedBytes);
+            stats.countCode(codeGenVisitor, sink);
+            codeGenVisitor.release();
+            checked = true;
+            generated = true;
+        }
+        catch (RuntimeException ex) {
+            // only tells a type error, reported instead, from a crash of the code generator;
+            // either way the output is incomplete
+            root.accept(new TypeCheckingVisitor(symbolTable, options.jobs), null);
+            checked = true;
+            throw ex;
+        }
+        finally {
+            if (sink != null)
+                sink.close();
+            if (checked)
+                offsets.writeTo(out);
+            if (generated)
+                Files.move(partialFile, Paths.get(outputFile), StandardCopyOption.REPLACE_EXISTING);
+            else if (sink != null)
+                Files.deleteIfExists(partialFile);
         }
+        stats.end();
     }
-}
\ No newline at end of file
+}
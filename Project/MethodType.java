@@ -1,17 +1,40 @@
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class MethodType extends SymbolType { 
-    String returnType;
-    LinkedHashMap<String, Variable> locals;
-    LinkedHashMap<String, Variable> parameters;
-    ArrayList<String> callArgs;
+    static final int[] NO_TYPES = new int[0];
 
-    MethodType(String name, String returnType) {
+    int id;
+    int returnType;
+    // allocated on the first local / parameter
+    Map<String, Variable> locals;
+    Map<String, Variable> parameters;
+    // parameter types in declaration order
+    int[] parameterTypes;
+    // IR type of a pointer to the method, built by the code generator on first use
+    String irPointerType;
+
+    MethodType(String name, int returnType) {
         super(name);
         this.returnType = returnType;
-        locals = new LinkedHashMap<String, Variable>();
-        parameters = new LinkedHashMap<String, Variable>();
-        callArgs = new ArrayList<String>();
+        locals = Collections.emptyMap();
+        parameters = Collections.emptyMap();
+        parameterTypes = NO_TYPES;
+    }
+
+    void addLocal(Variable var) {
+        if (locals.isEmpty())
+            locals = new LinkedHashMap<String, Variable>();
+        locals.put(var.name, var);
+    }
+
+    void addParameter(Variable var) {
+        if (parameters.isEmpty())
+            parameters = new LinkedHashMap<String, Variable>();
+        parameters.put(var.name, var);
+        parameterTypes = Arrays.copyOf(parameterTypes, parameterTypes.length + 1);
+        parameterTypes[parameterTypes.length - 1] = var.type;
     }
 }
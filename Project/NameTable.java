@@ -0,0 +1,35 @@
+import java.util.Arrays;
+
+/*
+ * The names prefix0, prefix1, ... of registers or labels, each built once for the whole
+ * compiler and shared by all the files and threads. The table is only ever replaced by
+ * a longer copy, so reading it needs no lock.
+ */
+final class NameTable {
+    private final String prefix;
+    private volatile String[] names;
+
+    NameTable(String prefix) {
+        this.prefix = prefix;
+        this.names = new String[0];
+    }
+
+    String name(int number) {
+        String[] names = this.names;
+        if (number < 0)
+            return prefix + number;
+        if (number < names.length)
+            return names[number];
+        synchronized (this) {
+            names = this.names;
+            if (number >= names.length) {
+                int from = names.length;
+                names = Arrays.copyOf(names, Math.max(number + 1, from * 2 + 256));
+                for (int i = from; i < names.length; i++)
+                    names[i] = prefix + i;
+                this.names = names;
+            }
+            return names[number];
+        }
+    }
+}
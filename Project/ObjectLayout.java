@@ -0,0 +1,196 @@
+import java.util.Arrays;
+
+/*
+ * Where the fields of the objects of every class go, how big the objects are and what
+ * their vtables hold, computed once for the whole program, super classes first, and
+ * looked up from then on. Every object starts with its vtable pointer; the offsets of
+ * the fields are counted from the end of it. A subclass keeps the fields of its super
+ * class at their offsets and adds its own after (or between) them, and keeps the vtable
+ * slots of its super class, an overriding method taking the slot of the method it
+ * overrides and the other methods new slots after them in declaration order. So its
+ * objects can be used wherever the super class is expected.
+ *
+ * By default the fields are laid out one after the other in declaration order, as the
+ * offsets listing always showed them, so an int or a pointer after a boolean is not
+ * aligned. Packed (-fpack), the fields of each class are placed largest first, each at
+ * a multiple of its own size, and the smaller ones fill the holes left by the alignment
+ * of the larger ones and by the end of the super class. Objects are then a multiple of
+ * 8 bytes.
+ */
+class ObjectLayout {
+    // the vtable pointer
+    static final int HEADER = 8;
+    // bytes of a vtable entry, the offset of a method is its slot times this
+    static final int ENTRY = 8;
+
+    private static final MethodType[] NO_METHODS = new MethodType[0];
+    private static final ClassType[] NO_CLASSES = new ClassType[0];
+
+    // end of the last field of every class, indexed by the type id of the class
+    private final int[] ends;
+    private final int[] sizes;
+    private final int[] paddings;
+    // free ranges {from, to, from, to, ...} before the end of every class, packed only
+    private final int[][] holes;
+    // the methods in the vtable of every class by slot, and the classes they belong to
+    private final MethodType[][] vtables;
+    private final ClassType[][] definers;
+
+    // a super class is always declared before its subclasses
+    ObjectLayout(SymbolTable symbolTable, boolean packed) {
+        int typeCount = symbolTable.types.size();
+        ends = new int[typeCount];
+        sizes = new int[typeCount];
+        paddings = new int[typeCount];
+        holes = new int[typeCount][];
+        vtables = new MethodType[typeCount][];
+        definers = new ClassType[typeCount][];
+
+        int[] fieldBytes = new int[typeCount];
+        for (ClassType classType : symbolTable.table.values()) {
+            int end = 0;
+            int[] free = new int[0];
+            int bytes = 0;
+            if (classType.hasSuperClass()) {
+                end = ends[classType.superClass];
+                free = holes[classType.superClass];
+                bytes = fieldBytes[classType.superClass];
+            }
+
+            Variable[] fields = classType.variables.values().toArray(new Variable[0]);
+            for (Variable field : fields)
+                bytes += symbolTable.types.fieldSize(field.type);
+
+            if (!packed) {
+                for (Variable field : fields) {
+                    field.offset = end;
+                    end += symbolTable.types.fieldSize(field.type);
+                }
+            }
+            else {
+                // stable, so fields of the same size stay in declaration order
+                Arrays.sort(fields, (a, b) -> symbolTable.types.fieldSize(b.type) - symbolTable.types.fieldSize(a.type));
+                for (Variable field : fields) {
+                    int size = symbolTable.types.fieldSize(field.type);
+                    int hole = findHole(free, size);
+                    if (hole >= 0) {
+                        field.offset = align(free[hole], size);
+                        free = fill(free, hole, field.offset, size);
+                    }
+                    else {
+                        field.offset = align(end, size);
+                        if (field.offset > end)
+                            free = addHole(free, end, field.offset);
+                        end = field.offset + size;
+                    }
+                }
+            }
+
+            int id = classType.id;
+            ends[id] = end;
+            holes[id] = free;
+            fieldBytes[id] = bytes;
+            sizes[id] = HEADER + (packed ? align(end, HEADER) : end);
+            paddings[id] = sizes[id] - HEADER - bytes;
+
+            layoutMethods(symbolTable, classType);
+        }
+    }
+
+    private void layoutMethods(SymbolTable symbolTable, ClassType classType) {
+        MethodType[] vtable = NO_METHODS;
+        ClassType[] definer = NO_CLASSES;
+        if (classType.hasSuperClass()) {
+            vtable = vtables[classType.superClass];
+            definer = definers[classType.superClass];
+        }
+        int slots = vtable.length;
+        if (!classType.methods.isEmpty()) {
+            vtable = Arrays.copyOf(vtable, slots + classType.methods.size());
+            definer = Arrays.copyOf(definer, vtable.length);
+            for (MethodType method : classType.methods.values()) {
+                // main is the only void method, and is not called through a vtable
+                if (method.returnType == TypeUniverse.VOID_ID)
+                    continue;
+                MethodType overridden = symbolTable.hierarchy.getInheritedMethod(classType.id, method.name);
+                int slot = overridden != null && overridden.returnType != TypeUniverse.VOID_ID ? overridden.offset / ENTRY : slots++;
+                method.offset = slot * ENTRY;
+                vtable[slot] = method;
+                definer[slot] = classType;
+            }
+            vtable = Arrays.copyOf(vtable, slots);
+            definer = Arrays.copyOf(definer, slots);
+        }
+        vtables[classType.id] = vtable;
+        definers[classType.id] = definer;
+    }
+
+    private static int align(int offset, int alignment) {
+        return alignment == 0 ? offset : (offset + alignment - 1) / alignment * alignment;
+    }
+
+    // index of the first free range with room for an aligned field of size bytes, or -1
+    private static int findHole(int[] free, int size) {
+        for (int i = 0; i < free.length; i += 2) {
+            if (align(free[i], size) + size <= free[i + 1])
+                return i;
+        }
+        return -1;
+    }
+
+    // the free ranges once size bytes at offset, inside the range at hole, are taken
+    private static int[] fill(int[] free, int hole, int offset, int size) {
+        int from = free[hole];
+        int to = free[hole + 1];
+        int[] result = new int[free.length + 2];
+        int n = 0;
+        for (int i = 0; i < free.length; i += 2) {
+            if (i != hole) {
+                result[n++] = free[i];
+                result[n++] = free[i + 1];
+                continue;
+            }
+            if (offset > from) {
+                result[n++] = from;
+                result[n++] = offset;
+            }
+            if (offset + size < to) {
+                result[n++] = offset + size;
+                result[n++] = to;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static int[] addHole(int[] free, int from, int to) {
+        int[] result = Arrays.copyOf(free, free.length + 2);
+        result[free.length] = from;
+        result[free.length + 1] = to;
+        return result;
+    }
+
+    // bytes allocated for an object of the class, vtable pointer included
+    int size(int classId) {
+        return sizes[classId];
+    }
+
+    // bytes of an object of the class that belong to no field
+    int padding(int classId) {
+        return paddings[classId];
+    }
+
+    // entries of the vtable of the class
+    int slots(int classId) {
+        return vtables[classId].length;
+    }
+
+    // the method an object of the class runs for a slot of its vtable
+    MethodType method(int classId, int slot) {
+        return vtables[classId][slot];
+    }
+
+    // the class that declares method(classId, slot)
+    ClassType definer(int classId, int slot) {
+        return definers[classId][slot];
+    }
+}
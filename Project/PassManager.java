@@ -0,0 +1,71 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/*
+ * Runs a pipeline of IRPasses over every function of an IRModule and keeps the wall
+ * time each pass took, summed over the functions, for the compiler statistics.
+ *
+ *     -O0    no passes, the IR is written as the code generator emits it
+ *     -O1    dce
+ *     -O2    cse, dce
+ */
+class PassManager {
+    static class Timing {
+        String name;
+        long wallNanos;
+        // functions the pass changed
+        int changed;
+    }
+
+    ArrayList<IRPass> passes;
+    LinkedHashMap<String, Timing> timings;
+
+    PassManager() {
+        this.passes = new ArrayList<IRPass>();
+        this.timings = new LinkedHashMap<String, Timing>();
+    }
+
+    static PassManager forLevel(int level) {
+        PassManager manager = new PassManager();
+        if (level >= 2)
+            manager.add(new CommonSubexpressionElimination());
+        if (level >= 1)
+            manager.add(new DeadCodeElimination());
+        return manager;
+    }
+
+    void add(IRPass pass) {
+        passes.add(pass);
+        if (!timings.containsKey(pass.name())) {
+            Timing timing = new Timing();
+            timing.name = pass.name();
+            timings.put(pass.name(), timing);
+        }
+    }
+
+    // adds the timings of a pass manager that ran on other functions of the module
+    void merge(PassManager other) {
+        for (Timing timing : other.timings.values()) {
+            Timing total = timings.get(timing.name);
+            total.wallNanos += timing.wallNanos;
+            total.changed += timing.changed;
+        }
+    }
+
+    boolean isEmpty() {
+        return passes.isEmpty();
+    }
+
+    void run(IRModule module) {
+        for (IRFunction function : module.functions()) {
+            for (IRPass pass : passes) {
+                Timing timing = timings.get(pass.name());
+                long start = System.nanoTime();
+                boolean changed = pass.run(function);
+                timing.wallNanos += System.nanoTime() - start;
+                if (changed)
+                    timing.changed++;
+            }
+        }
+    }
+}
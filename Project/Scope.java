@@ -0,0 +1,41 @@
+import static utilities.Constants.*;
+
+/*
+ * Where the visitors currently are: the class, the method (if any) and what kind of
+ * declarations are being visited (CLASS fields, FORMAL_PARAMETERs, METHOD_BODY locals,
+ * or METHOD for the statements of a method body). Scopes are immutable and are
+ * created once per class and method, so visiting a node never builds or parses a
+ * scope description.
+ */
+public final class Scope {
+    final String kind;
+    final ClassType classType;
+    final MethodType method;
+
+    private Scope(String kind, ClassType classType, MethodType method) {
+        this.kind = kind;
+        this.classType = classType;
+        this.method = method;
+    }
+
+    static Scope ofClass(ClassType classType) {
+        return new Scope(CLASS, classType, null);
+    }
+
+    static Scope ofMethod(ClassType classType, MethodType method) {
+        return new Scope(METHOD, classType, method);
+    }
+
+    // same class and method, for the declarations of the given kind
+    Scope withKind(String kind) {
+        return new Scope(kind, classType, method);
+    }
+
+    String className() {
+        return classType.name;
+    }
+
+    String methodName() {
+        return method.name;
+    }
+}
@@ -0,0 +1,291 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/*
+ * Token manager for the generated parser that tokenizes the source bytes directly,
+ * memory mapped for large files, instead of reading them through a JavaCharStream. The
+ * image of a token is either the constant image of a keyword or operator or the name
+ * from the SymbolPool, so no String is built per token.
+ *
+ * The whole file is tokenized up front and the tokens handed to the parser already
+ * linked. Only plain ASCII sources are handled: tokenize returns null for anything
+ * else (other characters, unicode escapes, a lexical error), and the caller parses
+ * that file with the generated token manager, which reports the errors. Lines and
+ * columns are counted the way JavaCharStream counts them, tabs to the next multiple
+ * of 8, so parse errors point to the same place.
+ */
+class SourceLexer extends MiniJavaParserTokenManager {
+    static final int TAB_SIZE = 8;
+    // below this a file is lexed faster from a heap copy than mapped (page faults and
+    // the checks of the direct buffer cost more than the copy)
+    static final long MAP_THRESHOLD = 4L * 1024 * 1024;
+
+    // keyword -> token kind, and the kind of every operator by its first character (no
+    // two operators of the grammar start with the same one), from the generated images
+    private static final HashMap<String, Integer> KEYWORDS = new HashMap<String, Integer>();
+    private static final int[] OPERATORS = new int[128];
+    static {
+        Arrays.fill(OPERATORS, -1);
+        for (int kind = 0; kind < jjstrLiteralImages.length; kind++) {
+            String image = jjstrLiteralImages[kind];
+            if (image == null || image.isEmpty() || kind == PRINT)
+                continue;
+            if (isLetter(image.charAt(0)))
+                KEYWORDS.put(image, kind);
+            else
+                OPERATORS[image.charAt(0)] = kind;
+        }
+    }
+    private static final byte[] PRINT_IMAGE = jjstrLiteralImages[PRINT].getBytes();
+
+    final SymbolPool symbols;
+    int tokenCount;
+
+    private final ByteBuffer source;
+    private final int length;
+    private int position;
+    // what JavaCharStream would report for the last character read
+    private int line;
+    private int column;
+    private boolean prevCharIsCR;
+    private boolean prevCharIsLF;
+
+    private Token first;
+    private Token last;
+
+    private SourceLexer(ByteBuffer source) {
+        super(new JavaCharStream(new StringReader("")));
+        this.symbols = new SymbolPool();
+        this.tokenCount = 0;
+        this.source = source;
+        this.length = source.limit();
+        this.position = 0;
+        this.line = 1;
+        this.column = 0;
+        this.prevCharIsCR = false;
+        this.prevCharIsLF = false;
+    }
+
+    // the file, mapped if it is at least MAP_THRESHOLD bytes long and read otherwise
+    static ByteBuffer read(String fileName) throws IOException {
+        try (FileInputStream in = new FileInputStream(fileName); FileChannel channel = in.getChannel()) {
+            long size = channel.size();
+            if (size >= MAP_THRESHOLD)
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            ByteBuffer bytes = ByteBuffer.allocate((int)size);
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes) < 0)
+                    break;
+            }
+            bytes.flip();
+            return bytes;
+        }
+    }
+
+    static ByteBuffer map(String fileName) throws IOException {
+        try (FileInputStream in = new FileInputStream(fileName); FileChannel channel = in.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    // the lexer with all the tokens of the source, or null if the source needs the generated one
+    static SourceLexer tokenize(ByteBuffer source) {
+        SourceLexer lexer = new SourceLexer(source);
+        return lexer.tokenize() ? lexer : null;
+    }
+
+    public Token getNextToken() {
+        if (first != null) {
+            Token token = first;
+            first = null;
+            return token;
+        }
+        // asked again after the end of the file
+        return token(EOF, jjstrLiteralImages[EOF], line, column);
+    }
+
+    // same as JavaCharStream.UpdateLineColumn
+    private void advance(int c) {
+        column++;
+        if (prevCharIsLF) {
+            prevCharIsLF = false;
+            line += (column = 1);
+        }
+        else if (prevCharIsCR) {
+            prevCharIsCR = false;
+            if (c == '\n')
+                prevCharIsLF = true;
+            else
+                line += (column = 1);
+        }
+        if (c == '\r')
+            prevCharIsCR = true;
+        else if (c == '\n')
+            prevCharIsLF = true;
+        else if (c == '\t') {
+            column--;
+            column += (TAB_SIZE - (column % TAB_SIZE));
+        }
+        position++;
+    }
+
+    // the rest of a token: none of its characters is a line end or a tab, and the
+    // first one, read with advance, already counted the line end before it
+    private void skip(int count) {
+        position += count;
+        column += count;
+    }
+
+    private int peek(int offset) {
+        return position + offset < length ? source.get(position + offset) : -1;
+    }
+
+    private boolean tokenize() {
+        while (position < length) {
+            int c = source.get(position);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f') {
+                advance(c);
+                continue;
+            }
+            if (c == '/') {
+                if (!skipComment())
+                    return false;
+                continue;
+            }
+
+            int start = position;
+            advance(c);
+            int beginLine = line;
+            int beginColumn = column;
+            int kind;
+            String image;
+            if (isLetter(c)) {
+                if (c == 'S' && startsWith(PRINT_IMAGE, start)) {
+                    skip(PRINT_IMAGE.length - 1);
+                    kind = PRINT;
+                    image = jjstrLiteralImages[PRINT];
+                }
+                else {
+                    int end = position;
+                    while (end < length && (isLetter(c = source.get(end)) || isDigit(c)))
+                        end++;
+                    skip(end - position);
+                    image = symbols.intern(source, start, position);
+                    // the names in the pool and the keys are both interned
+                    Integer keyword = KEYWORDS.get(image);
+                    kind = keyword != null ? keyword : IDENTIFIER;
+                }
+            }
+            else if (isDigit(c)) {
+                // 0 on its own, 012 is three literals
+                if (c != '0') {
+                    int end = position;
+                    while (end < length && isDigit(source.get(end)))
+                        end++;
+                    skip(end - position);
+                }
+                kind = INTEGER_LITERAL;
+                image = symbols.intern(source, start, position);
+            }
+            else {
+                kind = c >= 0 ? OPERATORS[c] : -1;
+                if (kind < 0)
+                    return false;
+                image = jjstrLiteralImages[kind];
+                // &&
+                for (int i = 1; i < image.length(); i++) {
+                    if (peek(0) != image.charAt(i))
+                        return false;
+                    advance(image.charAt(i));
+                }
+            }
+            append(token(kind, image, beginLine, beginColumn));
+        }
+        append(token(EOF, jjstrLiteralImages[EOF], line, column));
+        return true;
+    }
+
+    // comments are special tokens, which the syntax tree does not keep
+    private boolean skipComment() {
+        int next = peek(1);
+        if (next == '/') {
+            // up to and including the end of the line, which must be there
+            while (position < length) {
+                int c = source.get(position);
+                if (!isPlain(c))
+                    return false;
+                advance(c);
+                if (c == '\n')
+                    return true;
+                if (c == '\r') {
+                    if (peek(0) == '\n')
+                        advance('\n');
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (next == '*') {
+            advance('/');
+            advance('*');
+            while (position < length) {
+                int c = source.get(position);
+                if (!isPlain(c))
+                    return false;
+                advance(c);
+                if (c == '*' && peek(0) == '/') {
+                    advance('/');
+                    return true;
+                }
+            }
+            return false;
+        }
+        return false;
+    }
+
+    private boolean startsWith(byte[] image, int start) {
+        if (start + image.length > length)
+            return false;
+        for (int i = 0; i < image.length; i++) {
+            if (source.get(start + i) != image[i])
+                return false;
+        }
+        return true;
+    }
+
+    // a comment character that JavaCharStream reads as is: ASCII and not an escape
+    private static boolean isPlain(int c) {
+        return c >= 0 && c != '\\';
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private Token token(int kind, String image, int beginLine, int beginColumn) {
+        Token token = Token.newToken(kind, image);
+        token.beginLine = beginLine;
+        token.beginColumn = beginColumn;
+        token.endLine = line;
+        token.endColumn = column;
+        return token;
+    }
+
+    private void append(Token token) {
+        if (first == null)
+            first = token;
+        else
+            last.next = token;
+        last = token;
+        tokenCount++;
+    }
+}
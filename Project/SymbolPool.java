@@ -0,0 +1,83 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/*
+ * Identifiers and literals of a file, each stored once, filled by the SourceLexer as it
+ * tokenizes. A name is looked up straight from the source bytes, so a String is only
+ * created the first time a name is seen; every token with that name gets the same
+ * (interned) String, and the visitors can compare names by reference.
+ */
+class SymbolPool {
+    private String[] names;
+    // open addressing table of indexes in names + 1, 0 for a free slot
+    private int[] slots;
+    private int[] hashes;
+    private int count;
+
+    SymbolPool() {
+        names = new String[64];
+        hashes = new int[64];
+        slots = new int[128];
+        count = 0;
+    }
+
+    int size() {
+        return count;
+    }
+
+    // the ASCII name in source[start, end), added if it is new
+    String intern(ByteBuffer source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++)
+            hash = 31 * hash + source.get(i);
+
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int index = slots[slot] - 1;
+            if (index < 0)
+                return add(source, start, end, hash, slot);
+            if (hashes[index] == hash && matches(names[index], source, start, end))
+                return names[index];
+        }
+    }
+
+    private static boolean matches(String name, ByteBuffer source, int start, int end) {
+        if (name.length() != end - start)
+            return false;
+        for (int i = start; i < end; i++) {
+            if (name.charAt(i - start) != source.get(i))
+                return false;
+        }
+        return true;
+    }
+
+    private String add(ByteBuffer source, int start, int end, int hash, int slot) {
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++)
+            chars[i - start] = (char)source.get(i);
+        if (count == names.length) {
+            names = Arrays.copyOf(names, count * 2);
+            hashes = Arrays.copyOf(hashes, count * 2);
+        }
+        int index = count++;
+        String name = new String(chars).intern();
+        names[index] = name;
+        hashes[index] = hash;
+        slots[slot] = index + 1;
+        // keep the table at most half full
+        if (count * 2 > slots.length)
+            rehash();
+        return name;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int index = 0; index < count; index++) {
+            int slot = hashes[index] & mask;
+            while (slots[slot] != 0)
+                slot = (slot + 1) & mask;
+            slots[slot] = index + 1;
+        }
+    }
+}
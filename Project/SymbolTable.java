@@ -1,44 +1,51 @@
+import java.io.PrintStream;
 import java.util.*;
 import static utilities.Constants.*;
 
 public class SymbolTable {
 
     LinkedHashMap<String, ClassType> table;
+    TypeUniverse types;
+    ClassHierarchy hierarchy;
+    // field offsets and object sizes, set by calculateOffsets
+    ObjectLayout layout;
 
     SymbolTable() {
         table = new LinkedHashMap<String, ClassType>();
+        types = new TypeUniverse();
+    }
+
+    // called once all the declarations have been inserted
+    public void buildHierarchy() {
+        hierarchy = new ClassHierarchy(this);
     }
 
     /* DEBUG ONLY*/
     public void printSymbolTable() {
         for (String classKey : table.keySet()) {
             ClassType varClass = table.get(classKey);
-            if (varClass.superClass.isEmpty())
+            if (!varClass.hasSuperClass())
                 System.out.println("class " + varClass.name + "{");
             else 
-                System.out.println("class " + varClass.name + " extends " + varClass.superClass + "{");
+                System.out.println("class " + varClass.name + " extends " + types.name(varClass.superClass) + "{");
             
             for (String varKey : varClass.variables.keySet()) {
                 Variable variable = varClass.variables.get(varKey);
-                System.out.println(variable.type + " " + variable.name);
+                System.out.println(types.name(variable.type) + " " + variable.name);
             } 
             for (String methodKey : varClass.methods.keySet()) {
                 MethodType varMethod = varClass.methods.get(methodKey);
-                System.out.print(varMethod.returnType.toString() + " " + varMethod.name + "(");
+                System.out.print(types.name(varMethod.returnType) + " " + varMethod.name + "(");
                 // parameters list
                 for (String parKey : varMethod.parameters.keySet()) {
                     Variable variable = varMethod.parameters.get(parKey);
-                    System.out.print(variable.type + " " + variable.name + ", ");
+                    System.out.print(types.name(variable.type) + " " + variable.name + ", ");
                 }
                 System.out.println(") {");
                 for (String localKey : varMethod.locals.keySet()) {
                     Variable variable = varMethod.locals.get(localKey);
-                    System.out.print(variable.type + " " + variable.name + ", ");
+                    System.out.print(types.name(variable.type) + " " + variable.name + ", ");
                 }  
-                System.out.println("");
-                for (int i = 0; i < varMethod.callArgs.size(); i++) {
-                    System.out.print(varMethod.callArgs.get(i) + ",callarg");
-                }
                 System.out.println("\n}");
             }                   
             System.out.println("}\n");
@@ -54,97 +61,59 @@ public class SymbolTable {
         return varClass.methods.containsKey(identifier);
     } 
 
-    private Boolean methodIsInherited(String methodName, String className) {
-        while (classInheritsClass(className)) {
-            ClassType derivedClass = table.get(className);
-            if (methodExists(methodName, derivedClass.superClass)) 
-                return true;           
-            else 
-                className = derivedClass.superClass;                      
-        }
-        return false;
+    ClassType getClass(int id) {
+        return types.getClass(id);
     }
 
-    private MethodType getInheritedMethod(String methodName, String className) {
-        while (classInheritsClass(className)) {
-            ClassType derivedClass = table.get(className);
-
-            if (methodExists(methodName, derivedClass.superClass))         {
-                return table.get(derivedClass.superClass).methods.get(methodName);
-            }  
-            else {
-                className = derivedClass.superClass;                      
-            }
-        }
-        return null;
+    public MethodType getInheritedMethod(String methodName, String className) {
+        return hierarchy.getInheritedMethod(table.get(className).id, methodName);
     }
     
     public Boolean classInheritsClass(String className) {
-        return !table.get(className).superClass.isEmpty();
+        return table.get(className).hasSuperClass();
     }
 
-    public Boolean variableExistsRecursive(String name, String className) {
-        ClassType classType = table.get(className);
-        Boolean exists = classType.variables.containsKey(name);
-       
-        if (!exists && classInheritsClass(className))
-            exists = variableExistsRecursive(name, classType.superClass);
+    // true if derived is the class base or one of its subclasses
+    public boolean isSubclass(int derived, int base) {
+        return hierarchy.isSubclass(derived, base);
+    }
 
-        return exists;
+    public Boolean variableExistsRecursive(String name, String className) {
+        return getInheritedField(name, className) != null;
     }
 
+    // field of the class or of one of its ancestors
     public Variable getInheritedField(String name, String className) {
-        ClassType classType = table.get(className);
-        Boolean exists = classType.variables.containsKey(name);
-        Variable var = null;
-       
-        if (exists) {
-            var = classType.variables.get(name);
-        }
-        else if (classInheritsClass(className))
-            var = getInheritedField(name, classType.superClass);
-
-        return var;
+        return hierarchy.getField(table.get(className).id, name);
     }
 
-    public Boolean variableExists(String name, String className, String scope, String methodName) {          
-        ClassType varClass = table.get(className);
-        switch (scope) {
+    public Boolean variableExists(String name, Scope scope) {          
+        switch (scope.kind) {
             case CLASS:
-                return varClass.variables.containsKey(name);
+                return scope.classType.variables.containsKey(name);
             case METHOD_BODY:
-                return (varClass.methods.get(methodName)).locals.containsKey(name) || (varClass.methods.get(methodName)).parameters.containsKey(name);                
+                return scope.method.locals.containsKey(name) || scope.method.parameters.containsKey(name);                
             case FORMAL_PARAMETER:
-                return (varClass.methods.get(methodName)).parameters.containsKey(name);   
+                return scope.method.parameters.containsKey(name);   
         }
         return true;
     }
 
-    public String insertVariable(String name, String type, String className, String scope) {   
-        String methodName = "";
-        if (scope.equals(METHOD_BODY) || scope.equals(FORMAL_PARAMETER)) {
-            methodName = className.substring(className.indexOf(',') + 1);
-            className = className.substring(0, className.indexOf(','));
-        }
-        
-        if (!classExists(className))
-            return UNDECLARED;
-            
-        if (variableExists(name, className, scope, methodName))
+    public String insertVariable(String name, String type, Scope scope) {   
+        if (variableExists(name, scope))
             return DOUBLE_DECL;
   
-        ClassType varClass = table.get(className);
-        Variable var = new Variable(name, type);
+        Variable var = new Variable(name, types.intern(type));
 
-        switch (scope) {
+        switch (scope.kind) {
             case CLASS:
-                varClass.variables.put(name, var);
+                scope.classType.addVariable(var);
                 break;
             case METHOD_BODY:
-                (varClass.methods.get(methodName)).locals.put(name, var);
+                scope.method.addLocal(var);
                 break;
             case FORMAL_PARAMETER:
-                (varClass.methods.get(methodName)).parameters.put(name, var);
+                scope.method.addParameter(var);
                 break;
         }
         return "";
@@ -162,7 +131,9 @@ public class SymbolTable {
                 return UNDECLARED;                           
         }
         // insert 
-        ClassType newClass = new ClassType(name, superClassName);
+        int superClass = superClassName.isEmpty() ? TypeUniverse.NONE : types.id(superClassName);
+        ClassType newClass = new ClassType(name, types.intern(name), superClass);
+        types.setClass(newClass);
         table.put(name, newClass);
         return "";
     }
@@ -172,139 +143,53 @@ public class SymbolTable {
             return DOUBLE_DECL;
 
         // insert 
-        MethodType newMethod = new MethodType(methodName, type);
+        MethodType newMethod = new MethodType(methodName, types.intern(type));
+        newMethod.id = types.addMethod(newMethod);
         ClassType varClass = table.get(className);
         varClass.methods.put(methodName, newMethod); 
         return "";
     }    
 
-    public void insertCallArg(String methodName, String className, String type) {
-        ClassType classType = table.get(className);
-        MethodType method;
-        if (methodExists(methodName, className)) {
-            method = classType.methods.get(methodName);
-            method.callArgs.add(type);
-        }
-        else if (( getInheritedMethod(methodName, className)) != null) {
-            method = getInheritedMethod(methodName, className);
-            method.callArgs.add(type);
-        }
+    // the method that a call to methodName on an object of className resolves to
+    public MethodType resolveMethod(String methodName, String className) {
+        return hierarchy.getMethod(table.get(className).id, methodName);
     }
 
-    public ArrayList<String> getCallArgs(String methodName, String className) {
-        ClassType classType = table.get(className);
-        MethodType method;
-        if (methodExists(methodName, className)) { 
-            method = classType.methods.get(methodName);         
-            return method.callArgs;
-        }
-        else if ((method = getInheritedMethod(methodName, className)) != null) {
-       
-            return method.callArgs;
-        }
-        return new ArrayList<String>();
+    public int getClassSize(String className) {
+        return getClassSize(table.get(className));
     }
 
-    public void clearCallArgs(String methodName, String className) {
-        ClassType classType = table.get(className);
-        MethodType method;
-        if (methodExists(methodName, className)) { 
-            method = classType.methods.get(methodName);
-            method.callArgs.clear();
-        }
-        else if ((method = getInheritedMethod(methodName, className)) != null) {
-       
-            method.callArgs.clear();
-        }
+    public int getClassSize(ClassType classType) {
+        return layout.size(classType.id);
     }
 
-    public int getClassSize(String className) {
-        int size = 0;
-        ClassType classType = table.get(className);
-        while (true) {
-            for(Variable var : classType.variables.values()) {
-                switch(var.type) {
-                    case INT:
-                        size += 4;
-                        break;
-                    case BOOLEAN:
-                        size += 1;
-                        break;
-                    default:
-                        size += 8;
-                        break;
-                }
-            }
-            if (!classInheritsClass(className))
-                break;
-
-            className = classType.superClass;
-            classType = table.get(className);
-        }
-        return size + 8;
+    // lays out the objects and vtables of every class, fields packed with -fpack
+    public void calculateOffsets(boolean packFields) {
+        layout = new ObjectLayout(this, packFields);
     }
 
-    public void calculateOffsets() {
+    /*
+     * Lists the offsets of the fields of every class but the main class, and of the
+     * methods that take a new vtable slot in it, as laid out by calculateOffsets.
+     */
+    public void printOffsets(PrintStream out) {
+        StringBuilder listing = new StringBuilder();
         int classCount = 0;
-        for (String classKey : table.keySet()) {
+        for (ClassType classType : table.values()) {
             if (++classCount == 1)
                 continue;
-            ClassType classType = table.get(classKey);
-            System.out.println("-----------Class " + classKey + "-----------");
-            System.out.println("--Variables---");
-            if (classType.variables.keySet().size() > 0) {
-
-                int offset = 0;
-                Variable prevVar = (Variable)classType.variables.values().toArray()[0];
-             
-                if (classInheritsClass(classKey)) {
-                    ClassType parentClass = table.get(classType.superClass);
-                    prevVar = (Variable)parentClass.variables.values().toArray()[parentClass.variables.keySet().size() - 1];
-                }
-                for (String varKey : classType.variables.keySet()) {
-                    Variable variable = classType.variables.get(varKey);
-
-                    if (prevVar != variable) {
-                        if (prevVar.type.equals("int"))
-                            offset = 4;
-                        else if (prevVar.type.equals("boolean"))
-                            offset = 1;
-                        else 
-                            offset = 8;
-                    }                   
-
-                    variable.offset = prevVar.offset + offset ;
-                    
-                    prevVar = variable;
-                    System.out.println(classKey + '.' + varKey + " : " + variable.offset);
-                }
+            listing.append("-----------Class ").append(classType.name).append("-----------\n");
+            listing.append("--Variables---\n");
+            for (Variable variable : classType.variables.values())
+                listing.append(classType.name).append('.').append(variable.name).append(" : ").append(variable.offset).append('\n');
+            listing.append("---Methods---\n");
+            for (MethodType method : classType.methods.values()) {
+                if (hierarchy.getInheritedMethod(classType.id, method.name) == null)
+                    listing.append(classType.name).append('.').append(method.name).append(" : ").append(method.offset).append('\n');
             }
-            System.out.println("---Methods---");
-            int offset = 0;
-            if (classType.methods.keySet().size() > 0) {
-                MethodType prevMethod = (MethodType)classType.methods.values().toArray()[0];
-    
-                if (classInheritsClass(classKey)) {
-                    ClassType parentClass = table.get(classType.superClass);
-                    prevMethod = (MethodType)parentClass.methods.values().toArray()[parentClass.methods.keySet().size() - 1];
-                }
-    
-                for (String methodKey : classType.methods.keySet()) {
-                    MethodType method = classType.methods.get(methodKey);
-    
-                    if (prevMethod != method && !prevMethod.returnType.equals(VOID)) {
-                        offset = 8;
-                    }
-    
-                    method.offset = prevMethod.offset + offset;
-                    prevMethod = method;
-                    
-                    if (!methodIsInherited(methodKey, classKey))
-                        System.out.println(classKey + '.' + methodKey + " : " + method.offset);
-                }
-            }
-            
-            System.out.println("");
+            listing.append('\n');
         }
+        out.print(listing);
+        out.flush();
     }
 }
@@ -2,13 +2,24 @@ import syntaxtree.*;
 import visitor.*;
 import static utilities.Constants.*;
 
-class SymbolTableVisitor extends GJDepthFirst<String, String> {
+class SymbolTableVisitor extends GJDepthFirst<String, Scope> {
 
     SymbolTable symbolTable;
 
     public SymbolTableVisitor() {
         symbolTable = new SymbolTable();
     }
+
+    /**
+     * f0 -> MainClass()
+     * f1 -> ( TypeDeclaration() )*
+     * f2 -> <EOF>
+     */
+    public String visit(Goal n, Scope argu) throws Exception {
+        super.visit(n, argu);
+        symbolTable.buildHierarchy();
+        return null;
+    }
     
     /**
      * f0 -> "class"
@@ -30,16 +41,18 @@ class SymbolTableVisitor extends GJDepthFirst<String, String> {
      * f16 -> "}"
      * f17 -> "}"
     */
-    public String visit(MainClass n, String argu) throws Exception {
+    public String visit(MainClass n, Scope argu) throws Exception {
         String identifier = n.f1.accept(this, argu);
         symbolTable.insertClass(identifier, "");
         if (symbolTable.insertMethod("main", VOID, identifier) == null)
             throw new MyException(DOUBLE_DECL, "main", METHOD);
 
+        ClassType mainClass = symbolTable.table.get(identifier);
+        Scope scope = Scope.ofMethod(mainClass, mainClass.methods.get("main"));
         String argsId = n.f11.accept(this, null);
-        symbolTable.insertVariable(argsId, STRING_ARRAY, identifier + ",main", FORMAL_PARAMETER);
+        symbolTable.insertVariable(argsId, STRING_ARRAY, scope.withKind(FORMAL_PARAMETER));
         if (n.f14.present())
-            n.f14.accept(this, METHOD_BODY + " " + identifier + ",main");
+            n.f14.accept(this, scope.withKind(METHOD_BODY));
 
         // n.f15.accept(this, argu);
         return null;
@@ -51,16 +64,17 @@ class SymbolTableVisitor extends GJDepthFirst<String, String> {
      * f3 -> ( VarDeclaration() )*
      * f4 -> ( MethodDeclaration() )*
      */
-    public String visit(ClassDeclaration n, String argu) throws Exception {		
+    public String visit(ClassDeclaration n, Scope argu) throws Exception {		
         String identifier = n.f1.accept(this, null);
 		if (symbolTable.insertClass(identifier, "").equals(DOUBLE_DECL))
 			throw new MyException(DOUBLE_DECL, identifier, n.f0.accept(this, argu).toString());	
 
+        Scope scope = Scope.ofClass(symbolTable.table.get(identifier));
         if (n.f3.present())
-		    n.f3.accept(this, CLASS + " " + identifier);
+		    n.f3.accept(this, scope);
         
         if (n.f4.present())
-            n.f4.accept(this, identifier);
+            n.f4.accept(this, scope);
   
         return null;
  	}
@@ -72,7 +86,7 @@ class SymbolTableVisitor extends GJDepthFirst<String, String> {
     * f5 -> ( VarDeclaration() )*
     * f6 -> ( MethodDeclaration() )*
     */
-	public String visit(ClassExtendsDeclaration n, String argu) throws Exception {
+	public String visit(ClassExtendsDeclaration n, Scope argu) throws Exception {
 		String identifier = n.f1.accept(this, null);
 		String parentIdentifier = n.f3.accept(this, null);
 
@@ -82,11 +96,12 @@ class SymbolTableVisitor extends GJDepthFirst<String, String> {
         else if (ret.equals(UNDECLARED))
             throw new MyException(UNDECLARED, parentIdentifier, CLASS);
 
+        Scope scope = Scope.ofClass(symbolTable.table.get(identifier));
         if (n.f5.present())
-		    n.f5.accept(this, CLASS + " " + identifier);
+		    n.f5.accept(this, scope);
 
 		if (n.f6.present())
-            n.f6.accept(this, identifier);
+            n.f6.accept(this, scope);
 
 		return null;
 	}
@@ -106,22 +121,23 @@ class SymbolTableVisitor extends GJDepthFirst<String, String> {
     * f11 -> ";"
     * f12 -> "}"
     */
-    public String visit(MethodDeclaration n, String className) throws Exception {
+    public String visit(MethodDeclaration n, Scope classScope) throws Exception {
         String type = n.f1.accept(this, null);
         String methodName = n.f2.accept(this, null);
 
-        String ret = symbolTable.insertMethod(methodName, type, className);
+        String ret = symbolTable.insertMethod(methodName, type, classScope.className());
 
         if (ret.equals(DOUBLE_DECL))
             throw new MyException(DOUBLE_DECL, methodName, METHOD);
         else if (ret.equals(NON_VIRTUAL))
             throw new MyException(ret, methodName, "");
 
+        Scope scope = Scope.ofMethod(classScope.classType, classScope.classType.methods.get(methodName));
         if (n.f4.present())
-            n.f4.accept(this, FORMAL_PARAMETER + " " + className + "," + methodName);
+            n.f4.accept(this, scope.withKind(FORMAL_PARAMETER));
 
         if (n.f7.present())
-            n.f7.accept(this, METHOD_BODY + " " + className + "," + methodName);
+            n.f7.accept(this, scope.withKind(METHOD_BODY));
             
         return null;
     }
@@ -130,21 +146,13 @@ class SymbolTableVisitor extends GJDepthFirst<String, String> {
     * f0 -> Type()
     * f1 -> Identifier()
     */
-    public String visit(FormalParameter n, String typeId) throws Exception {
+    public String visit(FormalParameter n, Scope scope) throws Exception {
         String type = n.f0.accept(this, null);
         String identifier = n.f1.accept(this, null);
-        String scope = typeId.substring(0, typeId.indexOf(' '));
-        String className = typeId.substring(typeId.indexOf(' ') + 1);
 
-  
-  
-        String ret = symbolTable.insertVariable(identifier, type, className, scope);
-		switch (ret) {
-            case UNDECLARED:
-                throw new MyException(UNDECLARED, className.substring(0, className.indexOf(',')), CLASS);
-            case DOUBLE_DECL:
-                throw new MyException(ret, type + " " + identifier + " in parameters list", VARIABLE);
-        }
+        String ret = symbolTable.insertVariable(identifier, type, scope);
+        if (ret.equals(DOUBLE_DECL))
+            throw new MyException(ret, type + " " + identifier + " in parameters list", VARIABLE);
             
         return null;
     }
@@ -153,34 +161,29 @@ class SymbolTableVisitor extends GJDepthFirst<String, String> {
     * f0 -> Type()
     * f1 -> Identifier()
     */
-    public String visit(VarDeclaration n, String typeId) throws Exception {
+    public String visit(VarDeclaration n, Scope scope) throws Exception {
 		String type = n.f0.accept(this, null);
         String identifier = n.f1.accept(this, null);
-        String scope = typeId.substring(0, typeId.indexOf(' '));
-        String className = typeId.substring(typeId.indexOf(' ') + 1);
-        String ret = symbolTable.insertVariable(identifier, type, className, scope);
-
-        if (!scope.equals(CLASS))
-            scope = scope.equals(METHOD_BODY) ? "method body" : "parameters list";
-
-		switch (ret) {
-            case UNDECLARED:
-                throw new MyException(UNDECLARED, className.substring(0, className.indexOf(',')), CLASS);
-            case DOUBLE_DECL:                
-                throw new MyException(ret, type + " " + identifier + " in " + scope, VARIABLE);
-        }
+        String ret = symbolTable.insertVariable(identifier, type, scope);
+
+        String where = scope.kind;
+        if (!where.equals(CLASS))
+            where = where.equals(METHOD_BODY) ? "method body" : "parameters list";
+
+        if (ret.equals(DOUBLE_DECL))
+            throw new MyException(ret, type + " " + identifier + " in " + where, VARIABLE);
         return null;
     }
 
-	public String visit(BooleanType n, String argu) throws Exception { return BOOLEAN; }
+	public String visit(BooleanType n, Scope argu) throws Exception { return BOOLEAN; }
 
-	public String visit(IntegerType n, String argu) throws Exception { return INT; }
+	public String visit(IntegerType n, Scope argu) throws Exception { return INT; }
 
-	public String visit(BooleanArrayType n, String argu) throws Exception { return BOOLEAN_ARRAY; }
+	public String visit(BooleanArrayType n, Scope argu) throws Exception { return BOOLEAN_ARRAY; }
 
-	public String visit(IntegerArrayType n, String argu) throws Exception { return INT_ARRAY; }
+	public String visit(IntegerArrayType n, Scope argu) throws Exception { return INT_ARRAY; }
 
-	public String visit(NodeToken n, String argu) throws Exception { return n.tokenImage; }
+	public String visit(NodeToken n, Scope argu) throws Exception { return n.tokenImage; }
 
-    public String visit(Identifier n, String argu) throws Exception { return n.f0.toString(); }
+    public String visit(Identifier n, Scope argu) throws Exception { return n.f0.toString(); }
 }
\ No newline at end of file
@@ -1,13 +1,36 @@
 import visitor.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import syntaxtree.*;
 import static utilities.Constants.*;
 
-class TypeCheckingVisitor extends GJDepthFirst<String, String> {
+class TypeCheckingVisitor extends GJDepthFirst<String, Scope> {
     SymbolTable symbolTable;
+    // -j: threads checking the methods
+    int jobs;
+    // types of the arguments of the calls being checked: a call collects its arguments
+    // above the top it found, so the arguments of nested calls are stacked on them
+    private int[] callArgs;
+    private int callArgCount;
 
     public TypeCheckingVisitor(SymbolTable symbolTable) {
+        this(symbolTable, 1);
+    }
+
+    public TypeCheckingVisitor(SymbolTable symbolTable, int jobs) {
         this.symbolTable = symbolTable;
+        this.jobs = jobs;
+        this.callArgs = new int[8];
+        this.callArgCount = 0;
+    }
+
+    private void pushCallArg(String type) {
+        if (callArgCount == callArgs.length)
+            callArgs = Arrays.copyOf(callArgs, callArgCount * 2);
+        callArgs[callArgCount++] = symbolTable.types.id(type);
     }
     
     private Boolean isPrimitiveType(String type) {
@@ -23,15 +46,13 @@ class TypeCheckingVisitor extends GJDepthFirst<String, String> {
     }
 
     private Boolean isSubType(String lType, String rType) {
-        Boolean ret = false;
-        ClassType derivedClass = symbolTable.table.get(rType);
-        if (symbolTable.classInheritsClass(derivedClass.name)) {
-            if (!derivedClass.superClass.equals(lType))
-                ret = isSubType(lType, derivedClass.superClass);
-            else 
-                ret = true;
-        }
-        return ret;
+        return isSubType(symbolTable.types.id(lType), symbolTable.types.id(rType));
+    }
+
+    // true if rType is a proper subclass of lType
+    private Boolean isSubType(int lType, int rType) {
+        ClassType derivedClass = symbolTable.getClass(rType);
+        return derivedClass != null && symbolTable.isSubclass(derivedClass.superClass, lType);
     }
 
     private Boolean isMainMethod(String methodName, String className) {
@@ -39,119 +60,160 @@ class TypeCheckingVisitor extends GJDepthFirst<String, String> {
             return false;
         ClassType classType = symbolTable.table.get(className);
         MethodType method = classType.methods.get(methodName);
-        if (method.parameters.size() != 1)
+        if (method.parameterTypes.length != 1)
             return false;
 
-        Variable arg = (Variable)method.parameters.values().toArray()[0];
-        return arg.type.equals(STRING_ARRAY);
+        return method.parameterTypes[0] == TypeUniverse.STRING_ARRAY_ID;
     }
 
-    private Boolean isVirtual(ClassType derivedClass, ClassType parentClass, String methodName) {
-        MethodType derivedMethod = derivedClass.methods.get(methodName);
-        MethodType parentMethod = parentClass.methods.get(methodName);
-        
-        if (!derivedMethod.returnType.equals(parentMethod.returnType))
+    private Boolean isVirtual(MethodType derivedMethod, MethodType parentMethod) {
+        if (derivedMethod.returnType != parentMethod.returnType)
             return false;
         
-        if (derivedMethod.parameters.size() != parentMethod.parameters.size())
-            return false;
-        else {
-            // compare the types of all parameter pairs          
-            ArrayList<Variable> derivedParams = new ArrayList<Variable>(derivedMethod.parameters.values());
-            ArrayList<Variable> parentParams = new ArrayList<Variable>(parentMethod.parameters.values());
-            int argsCount = derivedParams.size();
-            for (int i = 0; i < argsCount; i++) {
-                // type mismatch
-                if (!derivedParams.get(i).type.equals(parentParams.get(i).type))
-                    return false;
-            }
-        }
-        return true;        
+        // compare the types of all parameter pairs          
+        return Arrays.equals(derivedMethod.parameterTypes, parentMethod.parameterTypes);
     }
 
     // check for virtual function signature if class extends another class
     private Boolean checkMethod(String methodName, String className) {
-        ClassType initialClass = symbolTable.table.get(className);
-        while (symbolTable.classInheritsClass(className)) {
-            ClassType derivedClass = symbolTable.table.get(className);
-            ClassType parentClass = symbolTable.table.get(derivedClass.superClass);
-            Boolean parentHasMethod = symbolTable.methodExists(methodName, derivedClass.superClass);
-
-            if (parentHasMethod && !isVirtual(initialClass, parentClass, methodName)) 
-                return false;           
-            else if (!parentHasMethod)  
-                className = derivedClass.superClass;
-            else 
-                return true;                      
-        }
-        return true;
+        MethodType parentMethod = symbolTable.getInheritedMethod(methodName, className);
+        if (parentMethod == null)
+            return true;
+
+        return isVirtual(symbolTable.table.get(className).methods.get(methodName), parentMethod);
     }
 
     private String checkInheritedLocals(String identifier, String className) {
-        while (symbolTable.classInheritsClass(className)) {
-            ClassType derivedClass = symbolTable.table.get(className);
-            ClassType parentClass = symbolTable.table.get(derivedClass.superClass);
-            Boolean parentHasLocalVar = symbolTable.variableExists(identifier, derivedClass.superClass, CLASS, "");
-
-            if (parentHasLocalVar) 
-                return parentClass.variables.get(identifier).type.toString();      
-            else 
-                className = derivedClass.superClass;                              
-        }
-        return UNDECLARED;
+        Variable var = symbolTable.getInheritedField(identifier, className);
+        return var != null ? symbolTable.types.name(var.type) : UNDECLARED;
     }
 
-    private Boolean validateArgTypes(MethodType method, ArrayList<String> callArgs) {
-        ArrayList<Variable> methodParameters = new ArrayList<Variable>(method.parameters.values());
+    // checks the call arguments collected from firstArg on against the parameters of method
+    private Boolean validateArgTypes(MethodType method, int firstArg) {
+        int[] parameterTypes = method.parameterTypes;
         
-        int argsCount = callArgs.size();
-        if (argsCount != methodParameters.size())
+        int argsCount = callArgCount - firstArg;
+        if (argsCount != parameterTypes.length)
             return false;
 
         for (int i = 0; i < argsCount; i++) {
-            String lType = methodParameters.get(i).type.toString();
-            String rType = callArgs.get(i);
-             if (!isPrimitiveType(lType) && !isPrimitiveType(rType) && !lType.equals(rType)) {
+            int lType = parameterTypes[i];
+            int rType = callArgs[firstArg + i];
+            if (!TypeUniverse.isPrimitive(lType) && !TypeUniverse.isPrimitive(rType) && lType != rType) {
                 if (!isSubType(lType, rType)) 
                     return false;
                 else
                     return true;
             }
-            else if (!lType.equals(rType))
+            else if (lType != rType)
                 return false;
         }
         return true;
     }
 
 
-    private String methodGetRetTypeIfExistsRecursive(String methodId, String objectType, ArrayList<String> callArgs) {
-        ClassType classType = symbolTable.table.get(objectType);
-        String retValue = "error";
+    private String methodGetRetTypeIfExistsRecursive(MethodType method, int firstArg) {
+        if (method == null)
+            return METHOD_NOTFOUND;
+
+        return validateArgTypes(method, firstArg) ? symbolTable.types.name(method.returnType) : WRONG_ARGS;
+    }
+
+    /*
+     * With -j N the method bodies are checked on a fork-join pool, each by a visitor of
+     * its own, against the symbol table that nothing changes anymore. The main class and
+     * the fields of every class are checked here in source order, and of all the errors
+     * found the one that comes first in the source is thrown, the same error as checking
+     * one method after another.
+     */
+    public String visit(Goal n, Scope argu) throws Exception {
+        if (jobs == 1)
+            return super.visit(n, argu);
+        n.f0.accept(this, argu);
+
+        // every task returns the error it found in its method, if any
+        ArrayList<ForkJoinTask<MyException>> tasks = new ArrayList<ForkJoinTask<MyException>>();
+        ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ? null : new ForkJoinPool(jobs);
+        // an error in the fields of a class, after the methods checked before the class
+        MyException fieldError = null;
+        try {
+            for (Node node : n.f1.nodes) {
+                Node declaration = ((TypeDeclaration)node).f0.choice;
+                NodeListOptional fields;
+                NodeListOptional methods;
+                String className;
+                if (declaration instanceof ClassDeclaration) {
+                    className = ((ClassDeclaration)declaration).f1.accept(this, null);
+                    fields = ((ClassDeclaration)declaration).f3;
+                    methods = ((ClassDeclaration)declaration).f4;
+                }
+                else {
+                    className = ((ClassExtendsDeclaration)declaration).f1.accept(this, null);
+                    fields = ((ClassExtendsDeclaration)declaration).f5;
+                    methods = ((ClassExtendsDeclaration)declaration).f6;
+                }
+                try {
+                    fields.accept(this, null);
+                }
+                catch (MyException ex) {
+                    fieldError = ex;
+                    break;
+                }
+                Scope classScope = Scope.ofClass(symbolTable.table.get(className));
+                for (Node method : methods.nodes) {
+                    ForkJoinTask<MyException> task = ForkJoinTask.adapt(() -> checkMethod(method, classScope));
+                    if (pool == null)
+                        task.fork();
+                    else
+                        pool.execute(task);
+                    tasks.add(task);
+                }
+            }
 
-        if (symbolTable.methodExists(methodId, classType.name)) {
-            MethodType method = classType.methods.get(methodId);
-            retValue = validateArgTypes(method, callArgs) ? method.returnType.toString() : WRONG_ARGS;
+            for (ForkJoinTask<MyException> task : tasks) {
+                MyException error = task.get();
+                if (error != null)
+                    throw error;
+            }
         }
-        
-        else if (symbolTable.classInheritsClass(classType.name))
-            retValue = methodGetRetTypeIfExistsRecursive(methodId, classType.superClass, callArgs);
-        else 
-            retValue = METHOD_NOTFOUND;
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception)
+                throw (Exception)ex.getCause();
+            throw ex;
+        }
+        finally {
+            for (ForkJoinTask<MyException> task : tasks)
+                task.cancel(false);
+            if (pool != null)
+                pool.shutdownNow();
+        }
+        if (fieldError != null)
+            throw fieldError;
+        return null;
+    }
 
-        return retValue;
+    private MyException checkMethod(Node method, Scope classScope) throws Exception {
+        try {
+            method.accept(new TypeCheckingVisitor(symbolTable), classScope);
+            return null;
+        }
+        catch (MyException ex) {
+            return ex;
+        }
     }
    
 
-    public String visit(MainClass n, String argu) throws Exception {
+    public String visit(MainClass n, Scope argu) throws Exception {
         String identifier = n.f1.accept(this, argu);
+        ClassType mainClass = symbolTable.table.get(identifier);
 
          //  ( VarDeclaration() )*
         if (n.f14.present())
-            n.f14.accept(this, METHOD_BODY + " " + identifier + ",main");        
+            n.f14.accept(this, null);        
 
         //  ( Statement() )*
         if (n.f15.present())
-            n.f15.accept(this,  identifier + ",main");         
+            n.f15.accept(this, Scope.ofMethod(mainClass, mainClass.methods.get("main")));         
 
         return null;
     }
@@ -162,14 +224,14 @@ class TypeCheckingVisitor extends GJDepthFirst<String, String> {
      * f3 -> ( VarDeclaration() )*
      * f4 -> ( MethodDeclaration() )*
      */
-    public String visit(ClassDeclaration n, String argu) throws Exception {		
+    public String visit(ClassDeclaration n, Scope argu) throws Exception {		
         String identifier = n.f1.accept(this, null);
 
         if (n.f3.present())
-		    n.f3.accept(this, CLASS + " " + identifier);
+		    n.f3.accept(this, null);
 
         if (n.f4.present())
-            n.f4.accept(this, identifier);
+            n.f4.accept(this, Scope.ofClass(symbolTable.table.get(identifier)));
         
         return null;
  	}
@@ -181,14 +243,14 @@ class TypeCheckingVisitor extends GJDepthFirst<String, String> {
     * f5 -> ( VarDeclaration() )*
     * f6 -> ( MethodDeclaration() )*
     */
-	public String visit(ClassExtendsDeclaration n, String argu) throws Exception {
+	public String visit(ClassExtendsDeclaration n, Scope argu) throws Exception {
 		String identifier = n.f1.accept(this, null);
 
         if (n.f5.present())
-		    n.f5.accept(this, CLASS + " " + identifier);
+		    n.f5.accept(this, null);
 		
         if (n.f6.present())
-            n.f6.accept(this, identifier);
+            n.f6.accept(this, Scope.ofClass(symbolTable.table.get(identifier)));
 
 		return null;
 	}
@@ -202,10 +264,30 @@ class TypeCheckingVisitor extends GJDepthFirst<String, String> {
     * f9 -> "return"
     * f10 -> Expression()
     */
-    public String visit(MethodDeclaration n, String className) throws Exception {
+    public String visit(MethodDeclaration n, Scope classScope) throws Exception {
+        MethodType method = checkDeclarations(n, classScope);
+        Scope scope = Scope.ofMethod(classScope.classType, method);
+            
+        if (n.f8.present())
+            n.f8.accept(this, scope);
+
+        String returnType = n.f10.accept(this, scope);
+        checkReturn(returnType, method);
+        return null;
+    }
+
+    /*
+     * The checks of the nodes, on the types of their parts. The visit methods apply
+     * them to the types of the children they visit, and so does the CodeGeneratorVisitor,
+     * which checks the method bodies while it generates them. Each one throws the error
+     * of the node, if it has one.
+     */
+
+    // the signature, the parameters and the locals of a method, checked before its body
+    MethodType checkDeclarations(MethodDeclaration n, Scope classScope) throws Exception {
         String methodName = n.f2.accept(this, null);
 
-        if (!checkMethod(methodName, className)) 
+        if (!checkMethod(methodName, classScope.className())) 
             throw new MyException(NON_VIRTUAL, methodName, "");
         
         if (n.f4.present())
@@ -213,24 +295,182 @@ class TypeCheckingVisitor extends GJDepthFirst<String, String> {
 
         if (n.f7.present())
             n.f7.accept(this, null);
-            
-        if (n.f8.present())
-            n.f8.accept(this, className + "," + methodName);
 
-        String returnType = n.f10.accept(this, className + "," + methodName);
-        MethodType method = symbolTable.table.get(className).methods.get(methodName);
+        return classScope.classType.methods.get(methodName);
+    }
 
-        if (!returnType.equals(method.returnType))
-            throw new MyException(RETURN_TYPE, methodName, "");
+    void checkReturn(String returnType, MethodType method) throws MyException {
+        if (!returnType.equals(symbolTable.types.name(method.returnType)))
+            throw new MyException(RETURN_TYPE, method.name, "");
+    }
 
-        return null;
+    void checkAssignment(String lType, String rType, Scope scope) throws MyException {
+        if (lType.equals(STRING_ARRAY) || rType.equals(STRING_ARRAY))
+            throw new MyException(USE_ARGS, "", "");
+
+        if (lType.equals(UNDECLARED))
+            throw new MyException(UNDECLARED, VARIABLE, "");
+
+        if (rType.equals("this")) {
+            rType = scope.className();
+        }
+
+        if (!isPrimitiveType(lType) && !isPrimitiveType(rType)) {
+            if (symbolTable.classExists(rType) && !lType.equals(rType)) {
+                if (!isSubType(lType, rType)) 
+                    throw new MyException(SUBTYPE, rType + ',' + lType, "");
+                return;
+            }
+            else if (!symbolTable.classExists(rType))
+                throw new MyException(UNDECLARED, "identifier", "");    
+        }
+
+        if (!lType.equals(rType)) 
+            throw new MyException(STATEMENT, scope.methodName(), "assignment");
+    }
+
+    void checkArrayAssignment(String idType, String indexType, String assignmentType, Scope scope) throws MyException {
+        if (idType.equals(UNDECLARED) || assignmentType.equals(UNDECLARED))
+            throw new MyException(UNDECLARED, VARIABLE, "");
+
+        if (!indexType.equals(INT))
+            throw new MyException(ASSIGNMENT, scope.methodName(), "index");
+
+        if (idType.equals(INT_ARRAY) || idType.equals(BOOLEAN_ARRAY)) {
+            idType = idType.replace("[]", "");
+            if (!idType.equals(assignmentType))
+                throw new MyException(ASSIGNMENT, scope.methodName(), "expression");
+        }    
+    }
+
+    // condition of an if or while statement
+    void checkCondition(String type, String statement) throws MyException {
+        if (!type.equals(BOOLEAN))
+            throw new MyException(EXPRESSION, "", statement);
+    }
+
+    void checkPrint(String type) throws MyException {
+        if (type == null || !type.equals(INT))
+            throw new MyException(PRINTSTATEMENT, "", "");
+    }
+
+    // an operator on two operands of operandType, e.g. INT and "plus(+)" for +
+    String checkBinary(String lTermType, String rTermType, String operandType, String operator, String resultType) throws MyException {
+        if (!lTermType.equals(operandType) || !rTermType.equals(operandType))
+            throw new MyException(EXPRESSION, operandType, operator);
+
+        return resultType;
+    }
+
+    // the array of an array lookup, checked before its index
+    void checkArray(String lType) throws MyException {
+        if (!lType.equals(INT_ARRAY) && !lType.equals(BOOLEAN_ARRAY))
+            throw new MyException(ARRAY_ACCESS, "", "");
+    }
+
+    String checkIndex(String lType, String rType) throws MyException {
+        if (!rType.equals(INT))
+            throw new MyException(INVALID_INDEX, "", "");
+
+        return lType.equals(INT_ARRAY) ? INT : BOOLEAN;
+    }
+
+    String checkArrayLength(String lType) throws MyException {
+        if (!lType.equals(INT_ARRAY) && !lType.equals(BOOLEAN_ARRAY))
+            throw new MyException(ARRAY_LENGTH, "", "");
+
+        return INT;
+    }
+
+    // the class of the object a method is called on
+    String checkReceiver(String lType, Scope scope) throws MyException {
+        if (lType.equals(INT) || lType.equals(BOOLEAN) || lType.equals(INT_ARRAY) || lType.equals(BOOLEAN_ARRAY)) 
+            throw new MyException(MEMBER_CALL, "", "");
+
+        if (lType.equals(UNDECLARED))
+            throw new MyException(MEMBER_CALL_UNDECL, "", "");
+
+        if (lType.equals("this")) {
+            if (isMainMethod(scope.methodName(), scope.className()))
+                throw new MyException(THIS_MAIN, "", "");            
+            lType = scope.className();
+        }
+        return lType;
+    }
+
+    // where the arguments of a call start, before they are checked
+    int beginCall() {
+        return callArgCount;
+    }
+
+    void checkCallArg(String type, Scope scope) throws MyException {
+        // undeclared identifier
+        if (type.equals(UNDECLARED)) 
+            throw new MyException(UNDECLARED, "call argument", "");
+
+        if (type.equals("this")) 
+            type = scope.className();
+        
+        pushCallArg(type);
+    }
+
+    // the return type of the call, once its arguments from firstArg on are checked
+    String checkCall(MethodType callee, String identifier, int firstArg) throws MyException {
+        String ret = methodGetRetTypeIfExistsRecursive(callee, firstArg);
+        switch (ret) {
+            case WRONG_ARGS:
+                throw new MyException(WRONG_ARGS, identifier, "");
+            case METHOD_NOTFOUND:
+                throw new MyException(METHOD_NOTFOUND, identifier, "");
+        }
+        callArgCount = firstArg;
+        return ret;
+    }
+
+    String checkNot(String type) throws MyException {
+        if (!type.equals(BOOLEAN))
+            throw new MyException(EXPRESSION, BOOLEAN, "not");
+        
+        return type;
+    }
+
+    String checkArrayAllocation(String sizeType, String elementType) throws MyException {
+        if (!sizeType.equals(INT))
+            throw new MyException(ARRAY_ALLOCATION, "", elementType);
+
+        return elementType.equals(INT) ? INT_ARRAY : BOOLEAN_ARRAY;
+    }
+
+    String checkAllocation(String identifier) throws MyException {
+        if (!symbolTable.classExists(identifier))
+            throw new MyException(ALLOCATION, identifier, "");
+
+        return identifier;
+    }
+
+    // type of a variable used in the method of the scope, UNDECLARED if there is none
+    String variableType(String name, Scope scope) {
+        String className = scope.className();
+        ClassType classVar = scope.classType;
+        MethodType method = scope.method;
+
+        if (method.locals.containsKey(name))
+            return symbolTable.types.name(method.locals.get(name).type);
+        else if (method.parameters.containsKey(name))
+            return symbolTable.types.name(method.parameters.get(name).type);
+        else if (classVar.variables.containsKey(name))
+            return symbolTable.types.name(classVar.variables.get(name).type);
+        else if (symbolTable.classInheritsClass(className))
+            return checkInheritedLocals(name, className);   // if found returns variable's type, else empty string    
+        else
+            return UNDECLARED;    
     }
     
     /**
     * f0 -> Type()
     * f1 -> Identifier()
     */
-    public String visit(FormalParameter n, String argu) throws Exception {
+    public String visit(FormalParameter n, Scope argu) throws Exception {
         String type = n.f0.accept(this, null);
         if (checkVarType(type).equals(UNDECLARED))
             throw new MyException(UNDECLARED, type, CLASS);
@@ -242,7 +482,7 @@ class TypeCheckingVisitor extends GJDepthFirst<String, String> {
     * f0 -> Type()
     * f1 -> Identifier()
     */
-    public String visit(VarDeclaration n, String argu) throws Exception {
+    public String visit(VarDeclaration n, Scope argu) throws Exception {
 		String type = n.f0.accept(this, null);
         String id = n.f1.accept(this, null);
         if (checkVarType(type).equals(UNDECLARED))
@@ -257,34 +497,10 @@ class TypeCheckingVisitor extends GJDepthFirst<String, String> {
     * f2 -> Expression()
     * f3 -> ";"
     */
-    public String visit(AssignmentStatement n, String scope) throws Exception {
-        // scope = className + "," + methodName;
+    public String visit(AssignmentStatement n, Scope scope) throws Exception {
         String lType = n.f0.accept(this, scope);
         String rType = n.f2.accept(this, scope);
-
-        if (lType.equals(STRING_ARRAY) || rType.equals(STRING_ARRAY))
-            throw new MyException(USE_ARGS, "", "");
-
-        if (lType.equals(UNDECLARED))
-            throw new MyException(UNDECLARED, VARIABLE, "");
-
-        if (rType.equals("this")) {
-            rType = scope.substring(0, scope.indexOf(','));
-        }
-
-        if (!isPrimitiveType(lType) && !isPrimitiveType(rType)) {
-            if (symbolTable.classExists(rType) && !lType.equals(rType)) {
-                if (!isSubType(lType, rType)) 
-                    throw new MyException(SUBTYPE, rType + ',' + lType, "");
-                return null;
-            }
-            else if (!symbolTable.classExists(rType))
-                throw new MyException(UNDECLARED, "identifier", "");    
-        }
-
-        if (!lType.equals(rType)) 
-            throw new MyException(STATEMENT, scope.substring(scope.indexOf(',') + 1), "assignment");
-
+        checkAssignment(lType, rType, scope);
         return null;
     }
 
@@ -297,24 +513,12 @@ class TypeCheckingVisitor extends GJDepthFirst<String, String> {
     * f5 -> Expression()
     * f6 -> ";"
     */
-    public String visit(ArrayAssignmentStatement n, String scope) throws Exception {
+    public String visit(ArrayAssignmentStatement n, Scope scope) throws Exception {
 
         String idType = n.f0.accept(this, scope);
         String indexType = n.f2.accept(this, scope);
         String assignmentType = n.f5.accept(this, scope);
-
-        if (idType.equals(UNDECLARED) || assignmentType.equals(UNDECLARED))
-            throw new MyException(UNDECLARED, VARIABLE, "");
-
-        if (!indexType.equals(INT))
-            throw new MyException(ASSIGNMENT, scope.substring(scope.indexOf(',') + 1), "index");
-
-        if (idType.equals(INT_ARRAY) || idType.equals(BOOLEAN_ARRAY)) {
-            idType = idType.replace("[]", "");
-            if (!idType.equals(assignmentType))
-                throw new MyException(ASSIGNMENT, scope.substring(scope.indexOf(',') + 1), "expression");
-        }    
-
+        checkArrayAssignment(idType, indexType, assignmentType, scope);
         return null;
     }
 
@@ -327,11 +531,10 @@ class TypeCheckingVisitor extends GJDepthFirst<String, String> {
     * f5 -> "else"
     * f6 -> Statement()
     */
-    public String visit(IfStatement n, String scope) throws Exception {
+    public String visit(IfStatement n, Scope scope) throws Exception {
 
         String type = n.f2.accept(this, scope);
-        if (!type.equals(BOOLEAN))
-            throw new MyException(EXPRESSION, "", "if");
+        checkCondition(type, "if");
 
         n.f4.accept(this, scope);
         n.f6.accept(this, scope);
@@ -345,10 +548,9 @@ class TypeCheckingVisitor extends GJDepthFirst<String, String> {
     * f3 -> ")"
     * f4 -> Statement()
     */
-    public String visit(WhileStatement n, String scope) throws Exception {
+    public String visit(WhileStatement n, Scope scope) throws Exception {
         String type = n.f2.accept(this, scope);
-        if (!type.equals(BOOLEAN))
-            throw new MyException(EXPRESSION, "", "while");
+        checkCondition(type, "while");
 
         n.f4.accept(this, scope);
         return null;
@@ -361,57 +563,40 @@ class TypeCheckingVisitor extends GJDepthFirst<String, String> {
     * f3 -> ")"
     * f4 -> ";"
     */
-    public String visit(PrintStatement n, String scope) throws Exception {
+    public String visit(PrintStatement n, Scope scope) throws Exception {
         String type = n.f2.accept(this, scope);
-        if (type == null || !type.equals(INT))
-            throw new MyException(PRINTSTATEMENT, "", "");
-
+        checkPrint(type);
         return INT;
     }
 
-    public String visit(AndExpression n, String argu) throws Exception {
+    public String visit(AndExpression n, Scope argu) throws Exception {
         String lTermType = n.f0.accept(this, argu);
         String rTermType = n.f2.accept(this, argu);
-        if (!lTermType.equals(BOOLEAN) || !rTermType.equals(BOOLEAN))
-            throw new MyException(EXPRESSION, BOOLEAN, "and");
-
-        return BOOLEAN;
+        return checkBinary(lTermType, rTermType, BOOLEAN, "and", BOOLEAN);
     }
 
-    public String visit(CompareExpression n, String argu) throws Exception {
+    public String visit(CompareExpression n, Scope argu) throws Exception {
         String lTermType = n.f0.accept(this, argu);
         String rTermType = n.f2.accept(this, argu);
-        if (!lTermType.equals(INT) || !rTermType.equals(INT))
-            throw new MyException(EXPRESSION, INT, "compare(<)");
-
-        return BOOLEAN;
+        return checkBinary(lTermType, rTermType, INT, "compare(<)", BOOLEAN);
     }
 
-    public String visit(PlusExpression n, String argu) throws Exception {
+    public String visit(PlusExpression n, Scope argu) throws Exception {
         String lTermType = n.f0.accept(this, argu);
         String rTermType = n.f2.accept(this, argu);
-        if (!lTermType.equals(INT) || !rTermType.equals(INT))
-            throw new MyException(EXPRESSION, INT, "plus(+)");
-
-        return INT;
+        return checkBinary(lTermType, rTermType, INT, "plus(+)", INT);
     }
 
-    public String visit(MinusExpression n, String argu) throws Exception {
+    public String visit(MinusExpression n, Scope argu) throws Exception {
         String lTermType = n.f0.accept(this, argu);
         String rTermType = n.f2.accept(this, argu);
-        if (!lTermType.equals(INT) || !rTermType.equals(INT))
-            throw new MyException(EXPRESSION, INT, "minus(-)");
-
-        return INT;
+        return checkBinary(lTermType, rTermType, INT, "minus(-)", INT);
     }
 
-    public String visit(TimesExpression n, String argu) throws Exception {
+    public String visit(TimesExpression n, Scope argu) throws Exception {
         String lTermType = n.f0.accept(this, argu);
         String rTermType = n.f2.accept(this, argu);
-        if (!lTermType.equals(INT) || !rTermType.equals(INT))
-            throw new MyException(EXPRESSION, INT, "times(*)");
-
-        return INT;
+        return checkBinary(lTermType, rTermType, INT, "times(*)", INT);
     }
 
     /**
@@ -420,16 +605,12 @@ class TypeCheckingVisitor extends GJDepthFirst<String, String> {
     * f2 -> PrimaryExpression()
     * f3 -> "]"
     */
-    public String visit(ArrayLookup n, String argu) throws Exception {
+    public String visit(ArrayLookup n, Scope argu) throws Exception {
         String lType = n.f0.accept(this, argu);
-        if (!lType.equals(INT_ARRAY) && !lType.equals(BOOLEAN_ARRAY))
-            throw new MyException(ARRAY_ACCESS, "", "");
+        checkArray(lType);
 
         String rType = n.f2.accept(this, argu);
-        if (!rType.equals(INT))
-            throw new MyException(INVALID_INDEX, "", "");
-
-        return lType.equals(INT_ARRAY) ? INT : BOOLEAN;
+        return checkIndex(lType, rType);
     }
 
     /**
@@ -437,12 +618,9 @@ class TypeCheckingVisitor extends GJDepthFirst<String, String> {
     * f1 -> "."
     * f2 -> "length"
     */
-    public String visit(ArrayLength n, String argu) throws Exception {        
+    public String visit(ArrayLength n, Scope argu) throws Exception {        
         String lType = n.f0.accept(this, argu);
-        if (!lType.equals(INT_ARRAY) && !lType.equals(BOOLEAN_ARRAY))
-            throw new MyException(ARRAY_LENGTH, "", "");
-
-        return INT;
+        return checkArrayLength(lType);
     }
     
     /**
@@ -453,73 +631,32 @@ class TypeCheckingVisitor extends GJDepthFirst<String, String> {
     * f4 -> ( ExpressionList() )?
     * f5 -> ")"
     */
-    public String visit(MessageSend n, String scope) throws Exception {
-       // scope = className + "," + methodName
-        String lType = n.f0.accept(this, scope);
-        if (lType.equals(INT) || lType.equals(BOOLEAN) || lType.equals(INT_ARRAY) || lType.equals(BOOLEAN_ARRAY)) 
-            throw new MyException(MEMBER_CALL, "", "");
-
-        if (lType.equals(UNDECLARED))
-            throw new MyException(MEMBER_CALL_UNDECL, "", "");
-
+    public String visit(MessageSend n, Scope scope) throws Exception {
+        String lType = checkReceiver(n.f0.accept(this, scope), scope);
         String identifier = n.f2.f0.toString();
-        String className = scope.substring(0, scope.indexOf(','));
-        String methodName = scope.substring(scope.indexOf(',') + 1);
-        if (lType.equals("this")) {
-            if (isMainMethod(methodName, className))
-                throw new MyException(THIS_MAIN, "", "");            
-            lType = className;
-        }
-        n.f4.accept(this, scope + "-" + identifier + "+" + lType);
+        MethodType callee = symbolTable.resolveMethod(identifier, lType);
+        int firstArg = beginCall();
+        n.f4.accept(this, scope);
 
-        ArrayList<String> tempCallArgs = symbolTable.getCallArgs(identifier, lType);
-        String ret = methodGetRetTypeIfExistsRecursive(identifier, lType, tempCallArgs);
-        switch (ret) {
-            case WRONG_ARGS:
-                throw new MyException(WRONG_ARGS, identifier, "");
-            case METHOD_NOTFOUND:
-                throw new MyException(METHOD_NOTFOUND, identifier, "");
-        }
-        symbolTable.clearCallArgs(identifier, lType);
-        return ret;
+        return checkCall(callee, identifier, firstArg);
     }
 
     /**
     * f0 -> Expression()
     * f1 -> ExpressionTail()
     */
-    public String visit(ExpressionList n, String scope) throws Exception {
-        String type = n.f0.accept(this, scope.substring(0, scope.indexOf('-')));     // f1 -> Expression()
-        // undeclared identifier
-        if (type.equals(UNDECLARED)) 
-            throw new MyException(UNDECLARED, "call argument", "");
-        if (type.equals("this")) 
-            type = scope.substring(0, scope.indexOf(','));
-
-        // insert temporary call argument in method
-        String memberCallName = scope.substring(scope.indexOf('-') + 1, scope.indexOf('+'));
-        String callingObjectClassName = scope.substring(scope.indexOf('+') + 1);
-        symbolTable.insertCallArg(memberCallName, callingObjectClassName, type);
+    public String visit(ExpressionList n, Scope scope) throws Exception {
+        String type = n.f0.accept(this, scope);     // f1 -> Expression()
+        checkCallArg(type, scope);
 
         n.f1.accept(this, scope);
         return null;
     }
 
-    public String visit(ExpressionTerm n, String scope) throws Exception {
-
-        String type = n.f1.accept(this, scope.substring(0, scope.indexOf('-')));     // f1 -> Expression()
-
-        // undeclared identifier
-        if (type.equals(UNDECLARED)) 
-            throw new MyException(UNDECLARED, "call argument", "");
+    public String visit(ExpressionTerm n, Scope scope) throws Exception {
 
-        if (type.equals("this")) 
-            type = scope.substring(0, scope.indexOf(','));
-        
-        // insert temporary call argument in method    
-        String memberCallName = scope.substring(scope.indexOf('-') + 1, scope.indexOf('+'));
-        String callingObjectClassName = scope.substring(scope.indexOf('+') + 1);
-        symbolTable.insertCallArg(memberCallName, callingObjectClassName, type);
+        String type = n.f1.accept(this, scope);     // f1 -> Expression()
+        checkCallArg(type, scope);
 
         return null;
     }
@@ -528,33 +665,24 @@ class TypeCheckingVisitor extends GJDepthFirst<String, String> {
     /**
         * f0 -> ( ExpressionTerm() )*
         */
-    public String visit(ExpressionTail n, String scope) throws Exception {
+    public String visit(ExpressionTail n, Scope scope) throws Exception {
         return n.f0.accept(this, scope);
     }
 
-    public String visit(NotExpression n, String argu) throws Exception { 
+    public String visit(NotExpression n, Scope argu) throws Exception { 
         // primary expression
         String type = n.f1.accept(this, argu);
-        if (!type.equals(BOOLEAN))
-            throw new MyException(EXPRESSION, BOOLEAN, "not");
-        
-        return type;
+        return checkNot(type);
     }
 
-    public String visit(BooleanArrayAllocationExpression n, String scope) throws Exception {
+    public String visit(BooleanArrayAllocationExpression n, Scope scope) throws Exception {
         String type = n.f3.accept(this, scope);
-        if (!type.equals(INT))
-            throw new MyException(ARRAY_ALLOCATION, "", BOOLEAN);
-
-        return BOOLEAN_ARRAY;
+        return checkArrayAllocation(type, BOOLEAN);
     }
 
-    public String visit(IntegerArrayAllocationExpression n, String scope) throws Exception {
+    public String visit(IntegerArrayAllocationExpression n, Scope scope) throws Exception {
         String type = n.f3.accept(this, scope);
-        if (!type.equals(INT))
-            throw new MyException(ARRAY_ALLOCATION, "", INT);            
-
-        return INT_ARRAY;
+        return checkArrayAllocation(type, INT);
     }
 
     /**
@@ -563,58 +691,38 @@ class TypeCheckingVisitor extends GJDepthFirst<String, String> {
     * f2 -> "("
     * f3 -> ")"
     */
-    public String visit(AllocationExpression n, String argu) throws Exception {
+    public String visit(AllocationExpression n, Scope argu) throws Exception {
 
         String identifier = n.f1.f0.toString();
-        if (!symbolTable.classExists(identifier))
-            throw new MyException(ALLOCATION, identifier, "");
-
-        return identifier;
+        return checkAllocation(identifier);
     }
 
-    public String visit(ThisExpression n, String argu) throws Exception { return n.f0.tokenImage; }
+    public String visit(ThisExpression n, Scope argu) throws Exception { return n.f0.tokenImage; }
 
-    public String visit(BracketExpression n, String argu) throws Exception { return n.f1.accept(this, argu); }
+    public String visit(BracketExpression n, Scope argu) throws Exception { return n.f1.accept(this, argu); }
     
-    public String visit(BooleanType n, String argu) throws Exception { return BOOLEAN; }
+    public String visit(BooleanType n, Scope argu) throws Exception { return BOOLEAN; }
 
-	public String visit(IntegerType n, String argu) throws Exception { return INT; }
+	public String visit(IntegerType n, Scope argu) throws Exception { return INT; }
 
-	public String visit(BooleanArrayType n, String argu) throws Exception { return BOOLEAN_ARRAY; }
+	public String visit(BooleanArrayType n, Scope argu) throws Exception { return BOOLEAN_ARRAY; }
 
-	public String visit(IntegerArrayType n, String argu) throws Exception { return INT_ARRAY; }
+	public String visit(IntegerArrayType n, Scope argu) throws Exception { return INT_ARRAY; }
 
-    public String visit(IntegerLiteral n, String argu) throws Exception { return INT; }
+    public String visit(IntegerLiteral n, Scope argu) throws Exception { return INT; }
     
-    public String visit(TrueLiteral n, String argu) throws Exception { return BOOLEAN; }
+    public String visit(TrueLiteral n, Scope argu) throws Exception { return BOOLEAN; }
     
-    public String visit(FalseLiteral n, String argu) throws Exception { return BOOLEAN; }
+    public String visit(FalseLiteral n, Scope argu) throws Exception { return BOOLEAN; }
 
-    public String visit(NodeToken n, String argu) throws Exception { return n.tokenImage; }
+    public String visit(NodeToken n, Scope argu) throws Exception { return n.tokenImage; }
 
-    // scope = className + "," + methodName;
-    public String visit(Identifier n, String scope) throws Exception { 
+    public String visit(Identifier n, Scope scope) throws Exception { 
         if (n == null) 
             return "";
         
-        if (scope != null) {
-            String name = n.f0.toString(); 
-            String className = scope.substring(0, scope.indexOf(','));
-            String methodName = scope.substring(scope.indexOf(',') + 1);
-            ClassType classVar = symbolTable.table.get(className);
-            MethodType method = classVar.methods.get(methodName);
-
-            if (method.locals.containsKey(name))
-                return method.locals.get(name).type;
-            else if (method.parameters.containsKey(name))
-                return method.parameters.get(name).type;
-            else if (classVar.variables.containsKey(name))
-                return classVar.variables.get(name).type;
-            else if (symbolTable.classInheritsClass(className))
-                return checkInheritedLocals(name, className);   // if found returns variable's type, else empty string    
-            else
-                return UNDECLARED;    
-        }
+        if (scope != null)
+            return variableType(n.f0.toString(), scope);
         return n.f0.toString();
     }
 }
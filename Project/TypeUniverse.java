@@ -0,0 +1,130 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import static utilities.Constants.*;
+
+/*
+ * Interned types of a program. Every type name (primitive or class) is given a dense
+ * integer id once, and the symbol table and the visitors work with the ids: comparing
+ * two types is an int comparison and per-type facts (IR type, field size, the class
+ * itself) are array lookups. Methods get dense ids as well.
+ */
+public class TypeUniverse {
+    static final int NONE = -1;
+    static final int INT_ID = 0;
+    static final int BOOLEAN_ID = 1;
+    static final int INT_ARRAY_ID = 2;
+    static final int BOOLEAN_ARRAY_ID = 3;
+    static final int STRING_ARRAY_ID = 4;
+    static final int VOID_ID = 5;
+
+    private final HashMap<String, Integer> ids;
+    private String[] names;
+    private String[] irTypes;
+    // the IR type of a pointer to a value of the type, e.g. i32* for int
+    private String[] irPointerTypes;
+    private int[] fieldSizes;
+    private ClassType[] classes;
+    private int typeCount;
+
+    private MethodType[] methods;
+    private int methodCount;
+
+    TypeUniverse() {
+        ids = new HashMap<String, Integer>();
+        names = new String[16];
+        irTypes = new String[16];
+        irPointerTypes = new String[16];
+        fieldSizes = new int[16];
+        classes = new ClassType[16];
+        typeCount = 0;
+        methods = new MethodType[16];
+        methodCount = 0;
+
+        // the order must match the *_ID constants
+        addType(INT, "i32", 4);
+        addType(BOOLEAN, "i1", 1);
+        addType(INT_ARRAY, "i32*", 8);
+        addType(BOOLEAN_ARRAY, "i8*", 8);
+        addType(STRING_ARRAY, "i8*", 8);
+        addType(VOID, "void", 0);
+    }
+
+    private int addType(String name, String irType, int fieldSize) {
+        if (typeCount == names.length) {
+            int capacity = typeCount * 2;
+            names = Arrays.copyOf(names, capacity);
+            irTypes = Arrays.copyOf(irTypes, capacity);
+            irPointerTypes = Arrays.copyOf(irPointerTypes, capacity);
+            fieldSizes = Arrays.copyOf(fieldSizes, capacity);
+            classes = Arrays.copyOf(classes, capacity);
+        }
+        names[typeCount] = name;
+        irTypes[typeCount] = irType;
+        irPointerTypes[typeCount] = irType + "*";
+        fieldSizes[typeCount] = fieldSize;
+        ids.put(name, typeCount);
+        return typeCount++;
+    }
+
+    // id of the type, registering it if this is the first time the name is seen
+    int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null)
+            return id;
+        // class types are object references
+        return addType(name, "i8*", 8);
+    }
+
+    // id of the type or NONE if the name has never been seen
+    int id(String name) {
+        Integer id = ids.get(name);
+        return id == null ? NONE : id;
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    String irType(int id) {
+        return irTypes[id];
+    }
+
+    String irPointerType(int id) {
+        return irPointerTypes[id];
+    }
+
+    int fieldSize(int id) {
+        return fieldSizes[id];
+    }
+
+    int size() {
+        return typeCount;
+    }
+
+    static boolean isPrimitive(int id) {
+        return id >= INT_ID && id <= BOOLEAN_ARRAY_ID;
+    }
+
+    ClassType getClass(int id) {
+        return id < 0 ? null : classes[id];
+    }
+
+    void setClass(ClassType classType) {
+        classes[classType.id] = classType;
+    }
+
+    int addMethod(MethodType method) {
+        if (methodCount == methods.length)
+            methods = Arrays.copyOf(methods, methodCount * 2);
+        methods[methodCount] = method;
+        return methodCount++;
+    }
+
+    MethodType getMethod(int id) {
+        return methods[id];
+    }
+
+    int methodCount() {
+        return methodCount;
+    }
+}
@@ -1,7 +1,7 @@
 public class Variable extends SymbolType {
-    String type;    
+    int type;    
 
-    Variable(String name, String type) {
+    Variable(String name, int type) {
         super(name);
         this.type = type;
     }